@@ -0,0 +1,12 @@
+package httper;
+
+import java.util.List;
+
+public interface BatchUploadCallback<T> {
+
+    /**
+     * Called once every file of the batch succeeded or ran out of retries.
+     */
+    void onResult(List<BatchUploadRequest.FileResult<T>> results);
+
+}
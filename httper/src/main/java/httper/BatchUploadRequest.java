@@ -0,0 +1,315 @@
+package httper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import httper.util.TypeUtil;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Upload files as independent multipart requests, a few at a time. A failed file is retried on its own,
+ * requesting the batch again only uploads the files that did not succeed yet.
+ */
+public class BatchUploadRequest extends HttpRequest<BatchUploadRequest> {
+
+    // backoff of the file retries when the request has no retry policy
+    private static final RetryPolicy DEFAULT_BACKOFF = new RetryPolicy.Builder().build();
+
+    private final Map<String, String> formData = new HashMap<>();
+    private final List<FileResult<Object>> files = new ArrayList<>();
+
+    private int parallelism = 3;
+    private int maxRetries;
+    private UploadProgressListener listener;
+    private Batch batch;
+
+    public BatchUploadRequest(Httper httper) {
+        super(httper);
+        if (httper.params != null) {
+            this.formData.putAll(httper.params);
+        }
+    }
+
+    public BatchUploadRequest addFormData(String name, String value) {
+        this.formData.put(name, value);
+        return this;
+    }
+
+    public BatchUploadRequest addFormData(Map<String, String> formData) {
+        this.formData.putAll(formData);
+        return this;
+    }
+
+    public BatchUploadRequest addFile(String name, File file) {
+        return addFile(name, file, null);
+    }
+
+    public BatchUploadRequest addFile(String name, File file, String contentType) {
+        files.add(new FileResult<>(name, file, contentType));
+        return this;
+    }
+
+    public BatchUploadRequest setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * How many more times a failed file is uploaded before it is reported as failed.
+     * Each new upload waits the backoff of the retry policy of the request, 0.5 s doubling up to 30 s without one.
+     */
+    public BatchUploadRequest setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0");
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Progress of the whole batch, in bytes of all the files.
+     */
+    public BatchUploadRequest setUploadProgressListener(UploadProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E> void request(BatchUploadCallback<E> callback) {
+        Type dataType = TypeUtil.getCachedGenericInterfaceTypeParameter(callback);
+        batch = new Batch(dataType, (BatchUploadCallback<Object>) (BatchUploadCallback<?>) callback);
+        batch.start();
+    }
+
+    /**
+     * Cancel the uploads in flight, the files not sent yet are not sent and nothing is retried.
+     */
+    @Override
+    public void cancel() {
+        super.cancel();
+        Batch current = batch;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public static class FileResult<T> {
+        public final String name;
+        public final File file;
+        final String contentType;
+        public HttpResponse<T> response;
+
+        FileResult(String name, File file, String contentType) {
+            this.name = name;
+            this.file = file;
+            this.contentType = contentType;
+        }
+
+        public boolean isSuccess() {
+            return response != null && response.isSuccess();
+        }
+
+        @Override
+        public String toString() {
+            return "FileResult{" +
+                    "name='" + name + '\'' +
+                    ", file=" + file +
+                    ", response=" + response +
+                    '}';
+        }
+    }
+
+    private class Batch {
+        private final Type dataType;
+        private final BatchUploadCallback<Object> callback;
+        private final Deque<FileResult<Object>> pending = new ArrayDeque<>();
+        private final Map<FileResult<Object>, Integer> attempts = new HashMap<>();
+        private final AtomicLong uploaded = new AtomicLong();
+        private final List<Call> calls = new ArrayList<>();
+        // failed files waiting for their backoff before they are pending again
+        private final Set<FileResult<Object>> backingOff = new HashSet<>();
+        private final String httpUrl;
+        private final ProgressDispatcher progressDispatcher;
+        private final RetryPolicy backoffPolicy;
+        private long total;
+        private int inFlight;
+        private boolean cancelled;
+        private boolean finished;
+
+        Batch(Type dataType, BatchUploadCallback<Object> callback) {
+            this.dataType = dataType;
+            this.callback = callback;
+            this.httpUrl = generateUrl();
+            this.progressDispatcher = listener != null ? newProgressDispatcher(listener::onProgress) : null;
+            this.backoffPolicy = retryPolicy != null ? retryPolicy : DEFAULT_BACKOFF;
+        }
+
+        void start() {
+            for (FileResult<Object> fileResult : files) {
+                long length = fileResult.file.length();
+                total += length;
+                if (fileResult.isSuccess()) {
+                    uploaded.addAndGet(length);
+                } else {
+                    pending.add(fileResult);
+                }
+            }
+            onProgress(uploaded.get());
+            next();
+        }
+
+        private void next() {
+            List<FileResult<Object>> toSend = new ArrayList<>();
+            boolean done = false;
+            synchronized (this) {
+                while (inFlight < parallelism && !pending.isEmpty()) {
+                    toSend.add(pending.poll());
+                    inFlight++;
+                }
+                // delivered once, by whichever file completes the batch
+                if (inFlight == 0 && pending.isEmpty() && backingOff.isEmpty() && !finished) {
+                    finished = true;
+                    done = true;
+                }
+            }
+            if (done) {
+                batch = null;
+                List<FileResult<Object>> results = new ArrayList<>(files);
+                if (callback != null) {
+                    deliver(() -> callback.onResult(results));
+                }
+                return;
+            }
+            for (FileResult<Object> fileResult : toSend) {
+                send(fileResult);
+            }
+        }
+
+        private void send(FileResult<Object> fileResult) {
+            final long length = fileResult.file.length();
+            MultipartBody.Builder bodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+            for (Map.Entry<String, String> entry : formData.entrySet()) {
+                bodyBuilder.addFormDataPart(entry.getKey(), entry.getValue());
+            }
+            String fileName = fileResult.file.getName();
+            MediaType mediaType = MediaType.parse(fileResult.contentType != null
+                    ? fileResult.contentType : UploadRequest.getMimeType(fileName));
+            bodyBuilder.addFormDataPart(fileResult.name, fileName, RequestBody.create(mediaType, fileResult.file));
+            RequestBody body = bodyBuilder.build();
+            final long[] written = {0};
+            if (progressDispatcher != null) {
+                body = new UploadBody(body, (uploadBytes, totalBytes) -> {
+                    // multipart framing is counted too, cap at the file length
+                    long fileBytes = Math.min(uploadBytes, length);
+                    long delta = fileBytes - written[0];
+                    written[0] = fileBytes;
+                    if (delta > 0) {
+                        onProgress(uploaded.addAndGet(delta));
+                    }
+                });
+            }
+            Request request = generateRequest().url(httpUrl).post(body).build();
+            Call call = enqueueTracked(request, new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    HttpResponse resp;
+                    try {
+                        resp = parseResponse(response, dataType);
+                    } catch (IOException e) {
+                        resp = HttpResponse.error(-101, e.getMessage());
+                    }
+                    fileDone(call, fileResult, resp, written[0]);
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    fileDone(call, fileResult, HttpResponse.error(-101, e.getMessage()), written[0]);
+                }
+            });
+            synchronized (this) {
+                if (cancelled) {
+                    call.cancel();
+                } else {
+                    calls.add(call);
+                }
+            }
+        }
+
+        /**
+         * Cancelling the request or the tag of one of its calls stops the whole batch.
+         */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+                backingOff.clear();
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+            // nothing may be in flight while files were backing off
+            next();
+        }
+
+        private void fileDone(Call call, FileResult<Object> fileResult, HttpResponse<Object> resp, long written) {
+            if (call.isCanceled()) {
+                cancel();
+            }
+            fileResult.response = resp;
+            long retryDelay = -1;
+            synchronized (this) {
+                calls.remove(call);
+                inFlight--;
+                if (!resp.isSuccess() && !cancelled) {
+                    Integer attempt = attempts.get(fileResult);
+                    int retries = attempt == null ? 0 : attempt;
+                    if (retries < maxRetries) {
+                        attempts.put(fileResult, retries + 1);
+                        backingOff.add(fileResult);
+                        retryDelay = backoffPolicy.backoff(retries + 1);
+                    }
+                }
+            }
+            if (!resp.isSuccess() && written > 0) {
+                onProgress(uploaded.addAndGet(-written));
+            }
+            if (retryDelay >= 0) {
+                RetryCallback.scheduler().schedule(() -> retry(fileResult), retryDelay, TimeUnit.MILLISECONDS);
+            }
+            next();
+        }
+
+        private void retry(FileResult<Object> fileResult) {
+            synchronized (this) {
+                // a cancel during the backoff already dropped it
+                if (!backingOff.remove(fileResult)) {
+                    return;
+                }
+                pending.add(fileResult);
+            }
+            next();
+        }
+
+        private void onProgress(long uploadBytes) {
+            if (progressDispatcher != null) {
+                progressDispatcher.onProgress(uploadBytes, total);
+            }
+        }
+    }
+}
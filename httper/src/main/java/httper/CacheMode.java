@@ -0,0 +1,30 @@
+package httper;
+
+/**
+ * How a {@link GetRequest} uses the parsed object cache of {@link Httper.Builder#setMemoryCache(int)}.
+ * An entry is fresh until its {@code max-age} or {@code Expires}, one without either is never fresh:
+ * CACHE_FIRST always goes to the network for it and STALE_WHILE_REVALIDATE always refreshes it.
+ */
+public enum CacheMode {
+    /**
+     * Always go to the network, the cached result is only reused when the server answers 304.
+     */
+    NETWORK_ONLY,
+    /**
+     * Go to the network and cache the result, fall back to a cached result when the call fails.
+     */
+    NETWORK_FIRST,
+    /**
+     * Serve a fresh cached result, otherwise go to the network and cache the result.
+     * Responses without max-age or Expires are never fresh and always fetched.
+     */
+    CACHE_FIRST,
+    /**
+     * Serve a cached result even if it is stale, never go to the network.
+     */
+    CACHE_ONLY,
+    /**
+     * Serve any cached result immediately, refresh it in the background when it is stale.
+     */
+    STALE_WHILE_REVALIDATE
+}
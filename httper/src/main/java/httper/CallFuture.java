@@ -0,0 +1,33 @@
+package httper;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future of a request, cancelling the future cancels the request along with a pending retry.
+ */
+@RequiresApi(Build.VERSION_CODES.N)
+class CallFuture<T> extends CompletableFuture<T> {
+
+    private volatile HttpRequest<?> request;
+
+    void setRequest(HttpRequest<?> request) {
+        this.request = request;
+        if (isCancelled()) {
+            request.cancel();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        HttpRequest<?> r = request;
+        if (cancelled && r != null) {
+            r.cancel();
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,86 @@
+package httper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.Call;
+
+/**
+ * Index of in flight calls by tag. Tags are compared by identity, like {@link Httper#cancel(Object)} always did.
+ * Untagged calls are kept too, so cancelAll reaches every call of the httpers sharing the registry and none
+ * of the other users of the http client.
+ */
+class CallTagRegistry {
+
+    private static final Object UNTAGGED = new Object();
+
+    // calls, and cancel hooks of the requests that run no call of their own like coalesced gets
+    private final Map<Object, Set<Object>> calls = new IdentityHashMap<>();
+
+    synchronized void add(Object tag, Call call) {
+        addEntry(tag, call);
+    }
+
+    synchronized void add(Object tag, Runnable cancelHook) {
+        addEntry(tag, cancelHook);
+    }
+
+    private void addEntry(Object tag, Object entry) {
+        Object key = tag != null ? tag : UNTAGGED;
+        Set<Object> set = calls.get(key);
+        if (set == null) {
+            set = Collections.newSetFromMap(new IdentityHashMap<>());
+            calls.put(key, set);
+        }
+        set.add(entry);
+    }
+
+    synchronized void remove(Object tag, Object entry) {
+        Object key = tag != null ? tag : UNTAGGED;
+        Set<Object> set = calls.get(key);
+        if (set != null) {
+            set.remove(entry);
+            if (set.isEmpty()) {
+                calls.remove(key);
+            }
+        }
+    }
+
+    void cancel(Object tag) {
+        Set<Object> set;
+        synchronized (this) {
+            set = calls.remove(tag);
+        }
+        if (set != null) {
+            for (Object entry : set) {
+                cancelEntry(entry);
+            }
+        }
+    }
+
+    void cancelAll() {
+        List<Object> list = new ArrayList<>();
+        synchronized (this) {
+            for (Set<Object> set : calls.values()) {
+                list.addAll(set);
+            }
+            calls.clear();
+        }
+        for (Object entry : list) {
+            cancelEntry(entry);
+        }
+    }
+
+    private static void cancelEntry(Object entry) {
+        if (entry instanceof Call) {
+            ((Call) entry).cancel();
+        } else {
+            ((Runnable) entry).run();
+        }
+    }
+
+}
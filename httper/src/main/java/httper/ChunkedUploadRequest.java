@@ -0,0 +1,462 @@
+package httper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import httper.util.FileUtil;
+import httper.util.TypeUtil;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Upload a large file as fixed size chunks, each one a multipart post of its own with the fields
+ * {@value #FIELD_UPLOAD_ID}, {@value #FIELD_CHUNK_INDEX}, {@value #FIELD_CHUNK_COUNT}, {@value #FIELD_OFFSET},
+ * {@value #FIELD_TOTAL_SIZE} and the chunk bytes in the {@value #FIELD_FILE} part.
+ * <p>
+ * Chunks the server acknowledged with a 2xx are not sent again when the request is retried. The last chunk is
+ * sent once all the others are acknowledged, its response is the result of the upload.
+ */
+public class ChunkedUploadRequest extends HttpRequest<ChunkedUploadRequest> {
+
+    public static final String FIELD_UPLOAD_ID = "uploadId";
+    public static final String FIELD_CHUNK_INDEX = "chunkIndex";
+    public static final String FIELD_CHUNK_COUNT = "chunkCount";
+    public static final String FIELD_OFFSET = "offset";
+    public static final String FIELD_TOTAL_SIZE = "totalSize";
+    public static final String FIELD_FILE = "file";
+
+    private final Map<String, String> formData = new HashMap<>();
+    private final Set<Integer> acknowledged = new HashSet<>();
+
+    private File file;
+    private String contentType;
+    private long chunkSize = 4 * 1024 * 1024;
+    private int parallelism = 1;
+    private String uploadId;
+    private File stateFile;
+    private UploadProgressListener listener;
+    private ChunkedUpload chunkedUpload;
+
+    public ChunkedUploadRequest(Httper httper) {
+        super(httper);
+        if (httper.params != null) {
+            this.formData.putAll(httper.params);
+        }
+    }
+
+    public ChunkedUploadRequest setFile(File file) {
+        return setFile(file, null);
+    }
+
+    public ChunkedUploadRequest setFile(File file, String contentType) {
+        this.file = file;
+        this.contentType = contentType;
+        return this;
+    }
+
+    public ChunkedUploadRequest setChunkSize(long chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize <= 0");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Number of chunks uploaded at once, the last chunk is always sent alone.
+     */
+    public ChunkedUploadRequest setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Identifies the upload to the server, by default a random UUID.
+     * It is kept in the state file, so the upload resumes under the same id.
+     */
+    public ChunkedUploadRequest setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+        return this;
+    }
+
+    /**
+     * Keep the acknowledged chunks in the file, so the upload resumes after the process restarted.
+     */
+    public ChunkedUploadRequest setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+        return this;
+    }
+
+    public ChunkedUploadRequest addFormData(String name, String value) {
+        this.formData.put(name, value);
+        return this;
+    }
+
+    public ChunkedUploadRequest addFormData(Map<String, String> formData) {
+        this.formData.putAll(formData);
+        return this;
+    }
+
+    public ChunkedUploadRequest setUploadProgressListener(UploadProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public <E> void request(HttpCallback<E> callback) {
+        if (file == null || !file.isFile()) throw new IllegalArgumentException("file not found: " + file);
+        Type dataType = TypeUtil.getCachedGenericInterfaceTypeParameter(callback);
+        chunkedUpload = new ChunkedUpload(dataType, callback);
+        chunkedUpload.start();
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        ChunkedUpload upload = chunkedUpload;
+        if (upload != null) {
+            upload.cancel();
+        }
+    }
+
+    private String uploadId() {
+        if (uploadId == null) {
+            uploadId = UUID.randomUUID().toString();
+        }
+        return uploadId;
+    }
+
+    /**
+     * The file the state was saved for, a changed file is uploaded again from the start.
+     */
+    private String source(long length) {
+        return file.getAbsolutePath() + '\n' + length + '\n' + file.lastModified();
+    }
+
+    private void loadState(long length) {
+        if (stateFile == null || !stateFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        String savedId = properties.getProperty("uploadId");
+        if (savedId == null
+                || uploadId != null && !uploadId.equals(savedId)
+                || !source(length).equals(properties.getProperty("source"))
+                || !String.valueOf(chunkSize).equals(properties.getProperty("chunkSize"))) {
+            return;
+        }
+        Set<Integer> saved = new HashSet<>();
+        try {
+            for (String index : properties.getProperty("acknowledged", "").split(",")) {
+                if (!index.isEmpty()) {
+                    saved.add(Integer.parseInt(index));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // a corrupted state is dropped, the upload starts over
+            e.printStackTrace();
+            clearState();
+            return;
+        }
+        uploadId = savedId;
+        synchronized (acknowledged) {
+            acknowledged.addAll(saved);
+        }
+    }
+
+    /**
+     * Chunks are acknowledged on several threads, the state is written under the lock to a temporary file
+     * renamed over the previous one, so a crash never leaves a truncated state.
+     */
+    private synchronized void saveState(long length) {
+        if (stateFile == null) {
+            return;
+        }
+        StringBuilder acked = new StringBuilder();
+        synchronized (acknowledged) {
+            for (Integer index : acknowledged) {
+                if (acked.length() > 0) acked.append(',');
+                acked.append(index);
+            }
+        }
+        Properties properties = new Properties();
+        properties.setProperty("uploadId", uploadId());
+        properties.setProperty("chunkSize", String.valueOf(chunkSize));
+        properties.setProperty("source", source(length));
+        properties.setProperty("acknowledged", acked.toString());
+        File tmpFile = new File(stateFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(stateFile)) {
+            // renameTo does not replace an existing file everywhere
+            if (!stateFile.delete() || !tmpFile.renameTo(stateFile)) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private synchronized void clearState() {
+        synchronized (acknowledged) {
+            acknowledged.clear();
+        }
+        if (stateFile != null && stateFile.exists() && !stateFile.delete()) {
+            stateFile.deleteOnExit();
+        }
+    }
+
+    private class ChunkedUpload {
+        private final Type dataType;
+        private final HttpCallback<?> callback;
+        private final long length;
+        private final int chunkCount;
+        private final Deque<Integer> pending = new ArrayDeque<>();
+        private final List<Call> calls = new ArrayList<>();
+        private final AtomicLong uploaded = new AtomicLong();
+        private final String httpUrl;
+        private final MediaType mediaType;
+        private final ProgressDispatcher progressDispatcher;
+        private int inFlight;
+        private HttpResponse<?> failure;
+        private boolean finished;
+
+        ChunkedUpload(Type dataType, HttpCallback<?> callback) {
+            this.dataType = dataType;
+            this.callback = callback;
+            this.length = file.length();
+            this.chunkCount = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+            this.httpUrl = generateUrl();
+            this.mediaType = MediaType.parse(contentType != null ? contentType : "application/octet-stream");
+            this.progressDispatcher = listener != null ? newProgressDispatcher(listener::onProgress) : null;
+        }
+
+        void start() {
+            loadState(length);
+            synchronized (acknowledged) {
+                for (int i = 0; i < chunkCount - 1; i++) {
+                    if (acknowledged.contains(i)) {
+                        uploaded.addAndGet(chunkLength(i));
+                    } else {
+                        pending.add(i);
+                    }
+                }
+            }
+            onProgress(uploaded.get());
+            next();
+        }
+
+        private long chunkLength(int index) {
+            return Math.min(chunkSize, length - index * chunkSize);
+        }
+
+        private void next() {
+            List<Integer> toSend = new ArrayList<>();
+            boolean sendLast = false;
+            HttpResponse<?> failed = null;
+            synchronized (this) {
+                if (failure != null) {
+                    // delivered once, by the last chunk to complete
+                    if (inFlight == 0 && !finished) {
+                        finished = true;
+                        failed = failure;
+                    }
+                } else if (pending.isEmpty() && inFlight == 0) {
+                    inFlight++;
+                    sendLast = true;
+                } else {
+                    while (inFlight < parallelism && !pending.isEmpty()) {
+                        toSend.add(pending.poll());
+                        inFlight++;
+                    }
+                }
+            }
+            if (failed != null) {
+                deliver(callback, failed);
+                return;
+            }
+            if (sendLast) {
+                send(chunkCount - 1);
+            }
+            for (Integer index : toSend) {
+                send(index);
+            }
+        }
+
+        private void send(int index) {
+            final boolean last = index == chunkCount - 1;
+            final long offset = index * chunkSize;
+            final long size = chunkLength(index);
+            MultipartBody.Builder bodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+            for (Map.Entry<String, String> entry : formData.entrySet()) {
+                bodyBuilder.addFormDataPart(entry.getKey(), entry.getValue());
+            }
+            bodyBuilder.addFormDataPart(FIELD_UPLOAD_ID, uploadId())
+                    .addFormDataPart(FIELD_CHUNK_INDEX, String.valueOf(index))
+                    .addFormDataPart(FIELD_CHUNK_COUNT, String.valueOf(chunkCount))
+                    .addFormDataPart(FIELD_OFFSET, String.valueOf(offset))
+                    .addFormDataPart(FIELD_TOTAL_SIZE, String.valueOf(length))
+                    .addFormDataPart(FIELD_FILE, file.getName(), new FileRegionBody(mediaType, file, offset, size));
+            RequestBody body = bodyBuilder.build();
+            final long[] written = {0};
+            if (listener != null) {
+                body = new UploadBody(body, (uploadBytes, totalBytes) -> {
+                    // multipart framing is counted too, cap at the chunk size
+                    long chunkBytes = Math.min(uploadBytes, size);
+                    long delta = chunkBytes - written[0];
+                    written[0] = chunkBytes;
+                    if (delta > 0) {
+                        onProgress(uploaded.addAndGet(delta));
+                    }
+                });
+            }
+            Request request = generateRequest().url(httpUrl).post(body).build();
+            Call call = enqueueTracked(request, new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (last) {
+                        HttpResponse resp;
+                        try {
+                            resp = parseResponse(response, dataType);
+                        } catch (IOException e) {
+                            resp = HttpResponse.error(-101, e.getMessage());
+                        }
+                        if (resp.isSuccess()) {
+                            clearState();
+                            chunkedUpload = null;
+                        }
+                        finishLast(resp);
+                        return;
+                    }
+                    response.close();
+                    if (response.isSuccessful()) {
+                        synchronized (acknowledged) {
+                            acknowledged.add(index);
+                        }
+                        saveState(length);
+                        chunkDone(null, 0);
+                    } else {
+                        chunkDone(HttpResponse.processResponse(response), written[0]);
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (last) {
+                        finishLast(HttpResponse.error(-101, e.getMessage()));
+                    } else {
+                        chunkDone(HttpResponse.error(-101, e.getMessage()), written[0]);
+                    }
+                }
+            });
+            synchronized (calls) {
+                calls.add(call);
+            }
+        }
+
+        private void chunkDone(HttpResponse<?> error, long unacknowledgedBytes) {
+            if (unacknowledgedBytes > 0) {
+                uploaded.addAndGet(-unacknowledgedBytes);
+            }
+            synchronized (this) {
+                inFlight--;
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+            }
+            next();
+        }
+
+        private void finishLast(HttpResponse<?> resp) {
+            if (resp.isSuccess()) {
+                onProgress(length);
+            }
+            deliver(callback, resp);
+        }
+
+        void cancel() {
+            synchronized (calls) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+        }
+
+        private void onProgress(long uploadBytes) {
+            if (progressDispatcher != null) {
+                progressDispatcher.onProgress(uploadBytes, length);
+            }
+        }
+    }
+
+    /**
+     * A region of a file, streamed from its offset without reading the bytes before it.
+     */
+    static class FileRegionBody extends RequestBody {
+        private final MediaType contentType;
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        FileRegionBody(MediaType contentType, File file, long offset, long length) {
+            this.contentType = contentType;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            Source source = null;
+            try {
+                in.getChannel().position(offset);
+                source = Okio.source(in);
+                sink.write(source, length);
+            } finally {
+                FileUtil.closeIO(source);
+                FileUtil.closeIO(in);
+            }
+        }
+    }
+}
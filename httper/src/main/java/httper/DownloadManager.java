@@ -0,0 +1,301 @@
+package httper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Queue of downloads with a concurrency cap, run on a dispatcher of their own so api calls are never starved.
+ * Requests for the same url and file are merged, queued downloads start by priority, then in order.
+ */
+public class DownloadManager {
+
+    private final Httper httper;
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private final List<Task> running = new ArrayList<>();
+    private int maxConcurrent;
+    private long sequence;
+
+    /**
+     * @param httper        the downloads share its configuration, connection pool and tags, not its dispatcher.
+     *                      {@link Httper#cancel(Object)} and {@link Httper#cancelAll()} reach them too
+     * @param maxConcurrent max number of downloads running at once
+     */
+    public DownloadManager(Httper httper, int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent < 1");
+        Dispatcher dispatcher = new Dispatcher();
+        OkHttpClient httpClient = httper.httpClient.newBuilder()
+                .dispatcher(dispatcher)
+                .build();
+        Httper.Builder builder = httper.newBuilder().setHttpClient(httpClient);
+        builder.tagRegistry = httper.tagRegistry;
+        this.httper = builder.build();
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * A resumable download request bound to the manager, pass it to {@link #enqueue}.
+     */
+    public DownloadRequest download(String url) {
+        return httper.download(url).setResumable(true);
+    }
+
+    public Task enqueue(DownloadRequest request, HttpCallback<File> callback) {
+        return enqueue(request, 0, callback);
+    }
+
+    /**
+     * Queue the download, or join the task already downloading the same url to the same file.
+     *
+     * @param priority higher starts first
+     */
+    public Task enqueue(DownloadRequest request, int priority, HttpCallback<File> callback) {
+        if (request.getFile() == null) throw new IllegalArgumentException("file == null");
+        if (request.httpClient.dispatcher() != httper.httpClient.dispatcher()) {
+            // it would run on another dispatcher, outside of the concurrency cap
+            throw new IllegalArgumentException("request not created by DownloadManager.download");
+        }
+        String key = request.generateUrl() + '\n' + request.getFile().getAbsolutePath();
+        Executor executor = request.executor;
+        List<Task> toStart;
+        Task task;
+        synchronized (this) {
+            task = tasks.get(key);
+            if (task != null) {
+                task.addCallback(callback, executor);
+                if (priority > task.priority) {
+                    setPriority(task, priority);
+                }
+                return task;
+            }
+            task = new Task(key, request, priority, sequence++);
+            task.addCallback(callback, executor);
+            tasks.put(key, task);
+            queue.add(task);
+            toStart = promote();
+        }
+        start(toStart);
+        return task;
+    }
+
+    public synchronized void setPriority(Task task, int priority) {
+        if (task.state == Task.QUEUED && queue.remove(task)) {
+            task.priority = priority;
+            queue.add(task);
+        } else {
+            task.priority = priority;
+        }
+    }
+
+    /**
+     * Stop the task, a running download keeps its partial file and continues from it on {@link #resume(Task)}.
+     * The cancelled run may still be saving its state, the task is not started again before that run is over.
+     */
+    public void pause(Task task) {
+        List<Task> toStart;
+        synchronized (this) {
+            if (task.state == Task.QUEUED) {
+                queue.remove(task);
+            } else if (task.state == Task.RUNNING) {
+                running.remove(task);
+                task.request.cancel();
+            } else {
+                return;
+            }
+            task.state = Task.PAUSED;
+            toStart = promote();
+        }
+        start(toStart);
+    }
+
+    public void resume(Task task) {
+        List<Task> toStart;
+        synchronized (this) {
+            if (task.state != Task.PAUSED) {
+                return;
+            }
+            task.state = Task.QUEUED;
+            queue.add(task);
+            toStart = promote();
+        }
+        start(toStart);
+    }
+
+    /**
+     * Drop the task, its callbacks are not called.
+     */
+    public void cancel(Task task) {
+        List<Task> toStart;
+        synchronized (this) {
+            if (task.state == Task.DONE) {
+                return;
+            }
+            queue.remove(task);
+            if (running.remove(task)) {
+                task.request.cancel();
+            }
+            task.state = Task.DONE;
+            tasks.remove(task.key);
+            toStart = promote();
+        }
+        start(toStart);
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent < 1");
+        List<Task> toStart;
+        synchronized (this) {
+            this.maxConcurrent = maxConcurrent;
+            toStart = promote();
+        }
+        start(toStart);
+    }
+
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    private List<Task> promote() {
+        List<Task> toStart = new ArrayList<>();
+        List<Task> waiting = null;
+        while (running.size() < maxConcurrent && !queue.isEmpty()) {
+            Task task = queue.poll();
+            if (task.inFlight) {
+                // resumed before its cancelled run finished writing the file
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                }
+                waiting.add(task);
+                continue;
+            }
+            task.state = Task.RUNNING;
+            task.run++;
+            task.inFlight = true;
+            running.add(task);
+            toStart.add(task);
+        }
+        if (waiting != null) {
+            queue.addAll(waiting);
+        }
+        return toStart;
+    }
+
+    private void start(List<Task> toStart) {
+        for (Task task : toStart) {
+            final int run = task.run;
+            task.request.request(httpResponse -> onFinished(task, run, httpResponse));
+        }
+    }
+
+    private void onFinished(Task task, int run, HttpResponse<File> httpResponse) {
+        List<Task> toStart;
+        List<Task.Listener> listeners = null;
+        synchronized (this) {
+            if (task.run == run) {
+                task.inFlight = false;
+            }
+            // a paused or cancelled run finishes with the cancellation, nothing to report
+            if (task.run == run && task.state == Task.RUNNING) {
+                running.remove(task);
+                task.state = Task.DONE;
+                tasks.remove(task.key);
+                listeners = task.listeners;
+            }
+            toStart = promote();
+        }
+        if (listeners != null) {
+            for (Task.Listener listener : listeners) {
+                HttpRequest.deliverResult(listener.callback, listener.executor, httpResponse);
+            }
+        }
+        start(toStart);
+    }
+
+    public static class Task implements Comparable<Task> {
+        static final int QUEUED = 0;
+        static final int RUNNING = 1;
+        static final int PAUSED = 2;
+        static final int DONE = 3;
+
+        final String key;
+        final DownloadRequest request;
+        final long sequence;
+        final List<Listener> listeners = new ArrayList<>();
+        int priority;
+        int state = QUEUED;
+        int run;
+        // the last run has not called back yet, its file and resume state may still be written
+        boolean inFlight;
+
+        Task(String key, DownloadRequest request, int priority, long sequence) {
+            this.key = key;
+            this.request = request;
+            this.priority = priority;
+            this.sequence = sequence;
+            // the manager schedules on the network thread, results and progress still reach the caller's executor
+            Executor executor = request.executor;
+            request.executor = null;
+            DownloadProgressListener listener = request.listener;
+            if (listener != null && executor != null) {
+                request.listener = (downloadBytes, totalBytes) ->
+                        executor.execute(() -> listener.onProgress(downloadBytes, totalBytes));
+            }
+        }
+
+        void addCallback(HttpCallback<File> callback, Executor executor) {
+            if (callback != null) {
+                listeners.add(new Listener(callback, executor));
+            }
+        }
+
+        public DownloadRequest getRequest() {
+            return request;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public boolean isPaused() {
+            return state == PAUSED;
+        }
+
+        public boolean isRunning() {
+            return state == RUNNING;
+        }
+
+        public boolean isDone() {
+            return state == DONE;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (priority != o.priority) {
+                return priority > o.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+
+        static class Listener {
+            final HttpCallback<File> callback;
+            final Executor executor;
+
+            Listener(HttpCallback<File> callback, Executor executor) {
+                this.callback = callback;
+                this.executor = executor;
+            }
+        }
+    }
+}
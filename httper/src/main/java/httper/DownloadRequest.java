@@ -1,10 +1,29 @@
 package httper;
 
-import java.io.BufferedOutputStream;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import httper.util.FileUtil;
 import okhttp3.Call;
@@ -12,11 +31,31 @@ import okhttp3.Callback;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
 
 public class DownloadRequest extends HttpRequest<DownloadRequest> {
 
+    // a range is only worth its own connection above this size
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long TRANSFER_CHUNK = 256 * 1024;
+
     private File file;
-    private DownloadProgressListener listener;
+    DownloadProgressListener listener;
+    private int segments = 1;
+    private boolean resumable;
+    private long resumeOffset;
+    private SegmentedDownload segmentedDownload;
+    private ProgressDispatcher progressDispatcher;
+    private String checksumAlgorithm;
+    private String checksum;
+    private String checksumHeader;
 
     public DownloadRequest(Httper httper) {
         super(httper);
@@ -32,99 +71,525 @@ public class DownloadRequest extends HttpRequest<DownloadRequest> {
         return this;
     }
 
+    public File getFile() {
+        return file;
+    }
+
     public DownloadRequest setDownloadProgressListener(DownloadProgressListener listener) {
         this.listener = listener;
         return this;
     }
 
+    /**
+     * Download the file with up to segments parallel range requests, when the server supports ranges.
+     * Only used by {@link #request(HttpCallback)}.
+     */
+    public DownloadRequest setSegments(int segments) {
+        if (segments < 1) throw new IllegalArgumentException("segments < 1");
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Keep the partial file of a failed download with its validator, the next attempt continues from where it stopped.
+     * Only single connection downloads are resumed.
+     */
+    public DownloadRequest setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    /**
+     * Verify the file against the expected digest (hex or base64), computed while the file is written.
+     * A mismatch fails the response with -106 and deletes the file. Downloads with a checksum use a single connection.
+     *
+     * @param algorithm a {@link MessageDigest} algorithm, like SHA-256
+     */
+    public DownloadRequest setChecksum(String algorithm, String checksum) {
+        this.checksumAlgorithm = Objects.requireNonNull(algorithm, "algorithm == null");
+        this.checksum = Objects.requireNonNull(checksum, "checksum == null");
+        this.checksumHeader = null;
+        return this;
+    }
+
+    /**
+     * Same as {@link #setChecksum(String, String)}, with the expected digest read from a response header.
+     * Nothing is verified when the response does not carry the header.
+     */
+    public DownloadRequest setChecksumHeader(String algorithm, String headerName) {
+        this.checksumAlgorithm = Objects.requireNonNull(algorithm, "algorithm == null");
+        this.checksumHeader = Objects.requireNonNull(headerName, "headerName == null");
+        this.checksum = null;
+        return this;
+    }
+
     public void request(HttpCallback<File> callback) {
-        String httpUrl = generateUrl();
+        if (segments > 1 && checksumAlgorithm == null) {
+            requestSegmented(callback);
+        } else {
+            enqueue(buildRequest(), generateCallback(callback));
+        }
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        SegmentedDownload download = segmentedDownload;
+        if (download != null) {
+            download.cancel();
+        }
+    }
 
-        Request.Builder builder = generateRequest().url(httpUrl);
-        Request request = builder.build();
+    /**
+     * Download on the calling thread, progress is still delivered through the executor.
+     */
+    public HttpResponse<File> execute() {
+        return execute(File.class);
+    }
 
-        call = generateOkClient().newCall(request);
-        call.enqueue(generateCallback(callback));
+    /**
+     * Download asynchronously, requires API 24.
+     *
+     * @see #requestAsync(Type)
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    public CompletableFuture<HttpResponse<File>> requestAsync() {
+        return requestAsync(File.class);
     }
 
+    /**
+     * The body is written to the file whatever the data type.
+     */
     @Override
-    protected <E> Callback generateCallback(HttpCallback<E> callback) {
-        return new Callback() {
-            @Override
-            public void onResponse(Call call, Response response) {
-                final HttpResponse<File> resp = HttpResponse.processResponse(response);
-                if (response.isSuccessful()) {
-                    if (FileUtil.createOrExistsFile(file)) {
-                        try {
-                            writeFile(response.body());
-                            resp.data = file;
-                        } catch (Exception e) {
-                            resp.error = new HttpResponse.Error(-104, e.getMessage());
+    protected HttpResponse parseResponse(Response response, Type dataType) {
+        final HttpResponse<File> resp = HttpResponse.processResponse(response);
+        if (response.isSuccessful()) {
+            if (FileUtil.createOrExistsFile(file)) {
+                // 206 answers the If-Range of a resumed download, 200 means the file changed and starts over
+                long offset = resumeOffset > 0 && response.code() == HttpURLConnection.HTTP_PARTIAL ? resumeOffset : 0;
+                String expected = checksum != null ? checksum
+                        : checksumHeader != null ? response.header(checksumHeader) : null;
+                try {
+                    MessageDigest digest = expected != null ? MessageDigest.getInstance(checksumAlgorithm) : null;
+                    writeFile(response.body(), offset, resumeValidator(response), digest);
+                    if (digest != null && !matchesChecksum(digest.digest(), expected)) {
+                        ResumeState.delete(resumeStateFile());
+                        if (!file.delete()) {
+                            file.deleteOnExit();
                         }
+                        resp.error = new HttpResponse.Error(-106, "checksum mismatch, expected " + expected);
                     } else {
-                        resp.error = new HttpResponse.Error(-103, "file create failed.");
+                        resp.data = file;
                     }
+                } catch (Exception e) {
+                    resp.error = new HttpResponse.Error(-104, e.getMessage());
                 }
-                onResult(resp);
+            } else {
+                resp.error = new HttpResponse.Error(-103, "file create failed.");
             }
+        } else if (resumeOffset > 0 && response.code() == 416) {
+            // the saved offset is no longer valid, the next attempt downloads the whole file
+            ResumeState.delete(resumeStateFile());
+        }
+        response.close();
+        return resp;
+    }
 
+    /**
+     * Continue a partial download with Range and If-Range when resume state was saved for the file.
+     */
+    @Override
+    protected Request buildRequest() {
+        resumeOffset = 0;
+        Request request = super.buildRequest();
+        if (!resumable || !file.isFile()) {
+            return request;
+        }
+        ResumeState state = ResumeState.load(resumeStateFile());
+        if (state == null) {
+            return request;
+        }
+        resumeOffset = Math.min(state.offset, file.length());
+        if (resumeOffset <= 0) {
+            resumeOffset = 0;
+            return request;
+        }
+        return request.newBuilder()
+                .header("Range", "bytes=" + resumeOffset + "-")
+                .header("If-Range", state.validator)
+                .build();
+    }
+
+    private File resumeStateFile() {
+        return new File(file.getPath() + ".download");
+    }
+
+    /**
+     * If-Range only accepts a strong ETag or a Last-Modified date.
+     */
+    private String resumeValidator(Response response) {
+        return resumable ? rangeValidator(response) : null;
+    }
+
+    private static String rangeValidator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * Probe the length, range support and validator with a HEAD request, fall back to a single download without them.
+     * Lengths are those of the identity encoding, a compressed response would not match the ranges.
+     */
+    private void requestSegmented(HttpCallback<File> callback) {
+        Request probe = generateRequest().url(generateUrl())
+                .header("Accept-Encoding", "identity")
+                .head()
+                .build();
+        enqueue(probe, new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                if (call.isCanceled()) {
+                    deliver(callback, HttpResponse.error(-101, "Canceled"));
+                    return;
+                }
+                long total = -1;
+                if (response.isSuccessful() && "bytes".equalsIgnoreCase(response.header("Accept-Ranges"))) {
+                    try {
+                        total = Long.parseLong(response.header("Content-Length", "-1"));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                // without a validator the ranges could come from different versions of the file
+                String validator = rangeValidator(response);
+                int count = validator != null ? (int) Math.min(segments, total / MIN_SEGMENT_SIZE) : 0;
+                if (count < 2) {
+                    enqueue(buildRequest(), generateCallback(callback));
+                    return;
+                }
+                HttpResponse<File> resp = HttpResponse.processResponse(response);
+                SegmentedDownload download = new SegmentedDownload(resp, total, count, validator, callback);
+                segmentedDownload = download;
+                // a cancel between the probe response and now cancelled the probe call, or reaches the download
+                if (call.isCanceled()) {
+                    download.cancel();
+                }
+                download.start();
+            }
 
             @Override
             public void onFailure(Call call, IOException e) {
-                onResult(HttpResponse.error(-101, e.getMessage()));
+                deliver(callback, HttpResponse.error(-101, e.getMessage()));
             }
+        });
+    }
 
-            private void onResult(HttpResponse httpResponse) {
-                if (callback != null) {
-                    if (executor != null) {
-                        executor.execute(() -> callback.onResult(httpResponse));
-                    } else {
-                        callback.onResult(httpResponse);
-                    }
+    private static boolean matchesChecksum(byte[] digest, String expected) {
+        String value = expected.trim();
+        ByteString actual = ByteString.of(digest);
+        return actual.hex().equalsIgnoreCase(value) || actual.base64().equals(value);
+    }
+
+    /**
+     * Segments are moved from the response source to the file sink, the bytes are not copied through a byte array.
+     * The digest, if any, is updated with the same segments on their way to the file.
+     */
+    private void writeFile(ResponseBody body, long offset, String validator, MessageDigest digest) throws IOException {
+        BufferedSource source = null;
+        BufferedSink sink = null;
+        long down = offset;
+        boolean complete = false;
+        try {
+            if (offset > 0) {
+                // drop anything written after the saved offset
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.setLength(offset);
                 }
             }
+            Sink fileSink = offset > 0 ? Okio.appendingSink(file) : Okio.sink(file);
+            if (digest != null) {
+                if (offset > 0) {
+                    // the kept part of a resumed download is hashed once, it is not downloaded again
+                    updateDigest(digest, file, offset);
+                }
+                fileSink = digestSink(fileSink, digest);
+            }
+            source = body.source();
+            sink = Okio.buffer(fileSink);
 
-            private void writeFile(ResponseBody body) throws IOException {
-                InputStream inputStream = null;
-                BufferedOutputStream outputStream = null;
-                try {
-                    inputStream = body.byteStream();
-                    outputStream = new BufferedOutputStream(new FileOutputStream(file));
-
-                    long total = body.contentLength();
-                    long down = 0;
-                    onProgress(0, total);
-
-                    int len;
-                    byte[] buf = new byte[4096];
-                    long time;
-                    long last = System.currentTimeMillis();
-                    while ((len = inputStream.read(buf)) != -1) {
-                        outputStream.write(buf, 0, len);
-                        down += len;
-                        time = System.currentTimeMillis();
-                        if (time - last > 250) {
-                            onProgress(down, total);
-                            last = time;
+            long total = body.contentLength();
+            if (total != -1) {
+                total += offset;
+            }
+            progressDispatcher = listener != null ? newProgressDispatcher(listener::onProgress) : null;
+            onProgress(down, total);
+
+            long len;
+            Buffer buffer = sink.buffer();
+            while ((len = source.read(buffer, TRANSFER_CHUNK)) != -1) {
+                sink.emitCompleteSegments();
+                down += len;
+                onProgress(down, total);
+            }
+            sink.flush();
+            complete = true;
+            // the throttled last event of a body without a length is flushed here
+            ProgressDispatcher dispatcher = progressDispatcher;
+            if (dispatcher != null) {
+                dispatcher.onComplete(down, total);
+            }
+        } finally {
+            FileUtil.closeIO(source);
+            FileUtil.closeIO(sink);
+            if (complete || validator == null) {
+                ResumeState.delete(resumeStateFile());
+            } else {
+                ResumeState.save(resumeStateFile(), new ResumeState(validator, down));
+            }
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, File file, long length) throws IOException {
+        OutputStream digestStream = digestStream(digest);
+        Buffer buffer = new Buffer();
+        try (Source source = Okio.source(file)) {
+            long remaining = length;
+            while (remaining > 0) {
+                long n = source.read(buffer, Math.min(TRANSFER_CHUNK, remaining));
+                if (n == -1) {
+                    throw new EOFException("partial file shorter than " + length);
+                }
+                buffer.writeTo(digestStream, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    private static Sink digestSink(Sink sink, MessageDigest digest) {
+        OutputStream digestStream = digestStream(digest);
+        return new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                source.copyTo(digestStream, 0, byteCount);
+                super.write(source, byteCount);
+            }
+        };
+    }
+
+    private static OutputStream digestStream(MessageDigest digest) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+    }
+
+    private void onProgress(long downloadBytes, long totalBytes) {
+        ProgressDispatcher dispatcher = progressDispatcher;
+        if (dispatcher != null) {
+            dispatcher.onProgress(downloadBytes, totalBytes);
+        }
+    }
+
+    /**
+     * Ranges of a preallocated file downloaded concurrently, each written at its own position.
+     */
+    private class SegmentedDownload {
+        private final HttpResponse<File> resp;
+        private final long total;
+        private final int count;
+        private final String validator;
+        private final HttpCallback<File> callback;
+        private final List<Call> calls = new ArrayList<>();
+        private boolean cancelled;
+        private final AtomicInteger remaining;
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private RandomAccessFile randomAccessFile;
+        private FileChannel channel;
+
+        SegmentedDownload(HttpResponse<File> resp, long total, int count, String validator,
+                          HttpCallback<File> callback) {
+            this.resp = resp;
+            this.total = total;
+            this.count = count;
+            this.validator = validator;
+            this.callback = callback;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        void start() {
+            boolean cancelledBeforeStart;
+            synchronized (calls) {
+                cancelledBeforeStart = cancelled;
+            }
+            if (cancelledBeforeStart) {
+                // nothing was written, the file at the path is left as it was
+                if (finished.compareAndSet(false, true)) {
+                    segmentedDownload = null;
+                    deliver(callback, HttpResponse.error(-101, "Canceled"));
+                }
+                return;
+            }
+            if (!FileUtil.createOrExistsFile(file)) {
+                finish(new HttpResponse.Error(-103, "file create failed."));
+                return;
+            }
+            try {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFile.setLength(total);
+                channel = randomAccessFile.getChannel();
+            } catch (IOException e) {
+                finish(new HttpResponse.Error(-104, e.getMessage()));
+                return;
+            }
+            progressDispatcher = listener != null ? newProgressDispatcher(listener::onProgress) : null;
+            onProgress(0, total);
+            String httpUrl = generateUrl();
+            long size = total / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = i == count - 1 ? total - 1 : start + size - 1;
+                Request request = generateRequest().url(httpUrl)
+                        .header("Range", "bytes=" + start + "-" + end)
+                        .header("If-Range", validator)
+                        .header("Accept-Encoding", "identity")
+                        .build();
+                Call call = enqueueTracked(request, new Callback() {
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        try (ResponseBody body = response.body()) {
+                            if (response.code() == HttpURLConnection.HTTP_OK) {
+                                // If-Range did not match, the file changed since the probe
+                                finish(new HttpResponse.Error(response.code(), "file changed during download."));
+                                return;
+                            }
+                            if (response.code() != HttpURLConnection.HTTP_PARTIAL) {
+                                finish(new HttpResponse.Error(response.code(), "range not supported: " + response.message()));
+                                return;
+                            }
+                            writeRange(body.source(), start, end - start + 1);
+                        } catch (IOException e) {
+                            finish(new HttpResponse.Error(-104, e.getMessage()));
+                            return;
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            finish(null);
                         }
                     }
-                    outputStream.flush();
-                } finally {
-                    FileUtil.closeIO(inputStream);
-                    FileUtil.closeIO(outputStream);
+
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        finish(new HttpResponse.Error(-101, e.getMessage()));
+                    }
+                });
+                synchronized (calls) {
+                    calls.add(call);
+                    if (cancelled) {
+                        call.cancel();
+                    }
                 }
             }
+        }
 
-            private void onProgress(long downloadBytes, long totalBytes) {
-                if (listener != null) {
-                    if (executor != null) {
-                        executor.execute(() -> listener.onProgress(downloadBytes, totalBytes));
-                    } else {
-                        listener.onProgress(downloadBytes, totalBytes);
-                    }
+        private void writeRange(BufferedSource source, long position, long length) throws IOException {
+            long written = 0;
+            while (written < length) {
+                long n = channel.transferFrom(source, position + written, Math.min(TRANSFER_CHUNK, length - written));
+                if (n <= 0) {
+                    throw new EOFException("unexpected end of range at " + (position + written));
                 }
+                written += n;
+                onProgress(downloaded.addAndGet(n), total);
             }
-        };
+        }
+
+        void cancel() {
+            synchronized (calls) {
+                cancelled = true;
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+        }
+
+        private void finish(HttpResponse.Error error) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (error != null) {
+                cancel();
+            }
+            FileUtil.closeIO(channel);
+            FileUtil.closeIO(randomAccessFile);
+            if (error == null) {
+                onProgress(total, total);
+                resp.data = file;
+            } else {
+                // segments are not resumable, a preallocated file with holes must not pass for a complete one
+                if (file.exists() && !file.delete()) {
+                    file.deleteOnExit();
+                }
+                resp.error = error;
+            }
+            segmentedDownload = null;
+            deliver(callback, resp);
+        }
+    }
+
+    /**
+     * Validator and offset of a partial download, saved next to the file.
+     */
+    private static class ResumeState {
+        final String validator;
+        final long offset;
+
+        ResumeState(String validator, long offset) {
+            this.validator = validator;
+            this.offset = offset;
+        }
+
+        static ResumeState load(File stateFile) {
+            if (!stateFile.isFile()) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(stateFile)) {
+                properties.load(in);
+                String validator = properties.getProperty("validator");
+                long offset = Long.parseLong(properties.getProperty("offset", "0"));
+                return validator != null ? new ResumeState(validator, offset) : null;
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        static void save(File stateFile, ResumeState state) {
+            Properties properties = new Properties();
+            properties.setProperty("validator", state.validator);
+            properties.setProperty("offset", String.valueOf(state.offset));
+            try (OutputStream out = new FileOutputStream(stateFile)) {
+                properties.store(out, null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        static void delete(File stateFile) {
+            if (stateFile.exists() && !stateFile.delete()) {
+                stateFile.deleteOnExit();
+            }
+        }
     }
 
 }
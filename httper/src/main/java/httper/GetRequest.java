@@ -1,18 +1,43 @@
 package httper;
 
-import java.util.HashMap;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import httper.util.TypeUtil;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.HttpUrl;
 import okhttp3.Request;
+import okhttp3.Response;
 
 public class GetRequest extends HttpRequest<GetRequest> {
 
-    private final Map<String, String> queryMap = new HashMap<>();
+    // sorted, so the same parameters always build the same url
+    private final Map<String, String> queryMap = new TreeMap<>();
+    private final RequestCoalescer coalescer;
+    private final MemoryCache memoryCache;
+    private CacheMode cacheMode = CacheMode.NETWORK_ONLY;
+    private HedgePolicy hedgePolicy;
+    // registered under the tag while the request waits on a coalesced call, the call itself is untagged
+    private final Runnable leaveFlight = this::cancel;
+    private volatile RequestCoalescer.Waiter waiter;
 
     public GetRequest(Httper httper) {
         super(httper);
+        coalescer = httper.coalescer;
+        memoryCache = httper.memoryCache;
+        hedgePolicy = httper.hedgePolicy;
         if (httper.params != null) {
             queryMap.putAll(httper.params);
         }
@@ -28,14 +53,408 @@ public class GetRequest extends HttpRequest<GetRequest> {
         return this;
     }
 
+    /**
+     * Only takes effect when the httper has a memory cache.
+     */
+    public GetRequest cacheMode(CacheMode cacheMode) {
+        if (cacheMode == null) throw new IllegalArgumentException("cacheMode == null");
+        this.cacheMode = cacheMode;
+        return this;
+    }
+
+    /**
+     * Hedge policy of this request, null turns off the one of the httper.
+     * Applies to {@link #request(HttpCallback)} and requestAsync, {@link #execute(Type)} runs a single call.
+     */
+    public GetRequest hedge(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+        return this;
+    }
+
     public <E> void request(HttpCallback<E> callback) {
-        String httpUrl = generateUrl();
+        waiter = null;
+        Type dataType = TypeUtil.getCachedGenericInterfaceTypeParameter(callback);
+        request(buildRequest(), dataType, resp -> deliver(callback, resp));
+    }
 
-        Request.Builder builder = generateRequest().url(httpUrl);
-        Request request = builder.build();
+    /**
+     * Same as {@link #request(HttpCallback)}: cache mode, coalescing and hedging apply.
+     * A cached result completes the future on the calling thread.
+     */
+    @Override
+    @RequiresApi(Build.VERSION_CODES.N)
+    @SuppressWarnings("unchecked")
+    public <E> CompletableFuture<HttpResponse<E>> requestAsync(Type dataType) {
+        final CallFuture<HttpResponse<E>> future = new CallFuture<>();
+        waiter = null;
+        request(buildRequest(), dataType, resp -> future.complete((HttpResponse<E>) resp));
+        future.setRequest(this);
+        return future;
+    }
 
-        call = generateOkClient().newCall(request);
-        call.enqueue(generateCallback(callback));
+    /**
+     * Honors the cache mode like {@link #request(HttpCallback)}, but the call runs alone on the calling thread:
+     * it is neither coalesced nor hedged. A stale result served by STALE_WHILE_REVALIDATE is refreshed in the background.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> HttpResponse<E> execute(Type dataType) {
+        waiter = null;
+        Request request = buildRequest();
+        if (memoryCache == null) {
+            return execute(request, response -> parseResponse(response, dataType));
+        }
+        String key = requestKey(request, dataType);
+        MemoryCache.Entry entry = memoryCache.get(key);
+        HttpResponse resp;
+        switch (cacheMode) {
+            case CACHE_ONLY:
+                return entry != null ? entry.getResponse() : HttpResponse.error(-105, "no cached response.");
+            case CACHE_FIRST:
+                if (entry != null && entry.isFresh()) {
+                    return entry.getResponse();
+                }
+                resp = executeConditional(request, dataType, key);
+                memoryCache.put(key, resp);
+                return resp;
+            case STALE_WHILE_REVALIDATE:
+                if (entry != null) {
+                    if (!entry.isFresh()) {
+                        fetch(request, dataType, key, r -> memoryCache.put(key, r));
+                    }
+                    return entry.getResponse();
+                }
+                resp = executeConditional(request, dataType, key);
+                memoryCache.put(key, resp);
+                return resp;
+            case NETWORK_FIRST:
+                resp = executeConditional(request, dataType, key);
+                if (resp.isSuccess()) {
+                    memoryCache.put(key, resp);
+                    return resp;
+                }
+                MemoryCache.Entry cached = memoryCache.get(key);
+                return cached != null ? cached.getResponse() : resp;
+            case NETWORK_ONLY:
+            default:
+                resp = executeConditional(request, dataType, key);
+                memoryCache.put(key, resp);
+                return resp;
+        }
+    }
+
+    /**
+     * The cache mode applied to a request, the result is handed to the sink.
+     */
+    private void request(Request request, Type dataType, HttpCallback<Object> sink) {
+        if (memoryCache == null) {
+            fetch(request, dataType, null, sink);
+            return;
+        }
+        String key = requestKey(request, dataType);
+        MemoryCache.Entry entry = memoryCache.get(key);
+        switch (cacheMode) {
+            case NETWORK_ONLY:
+                fetch(request, dataType, key, resp -> {
+                    memoryCache.put(key, resp);
+                    sink.onResult(resp);
+                });
+                break;
+            case CACHE_ONLY:
+                sink.onResult(entry != null
+                        ? entry.getResponse() : HttpResponse.error(-105, "no cached response."));
+                break;
+            case CACHE_FIRST:
+                if (entry != null && entry.isFresh()) {
+                    sink.onResult(entry.getResponse());
+                } else {
+                    fetch(request, dataType, key, resp -> {
+                        memoryCache.put(key, resp);
+                        sink.onResult(resp);
+                    });
+                }
+                break;
+            case STALE_WHILE_REVALIDATE:
+                if (entry != null) {
+                    sink.onResult(entry.getResponse());
+                    if (!entry.isFresh()) {
+                        fetch(request, dataType, key, resp -> memoryCache.put(key, resp));
+                    }
+                } else {
+                    fetch(request, dataType, key, resp -> {
+                        memoryCache.put(key, resp);
+                        sink.onResult(resp);
+                    });
+                }
+                break;
+            case NETWORK_FIRST:
+            default:
+                fetch(request, dataType, key, resp -> {
+                    if (resp.isSuccess()) {
+                        memoryCache.put(key, resp);
+                        sink.onResult(resp);
+                    } else {
+                        MemoryCache.Entry cached = memoryCache.get(key);
+                        sink.onResult(cached != null ? cached.getResponse() : resp);
+                    }
+                });
+                break;
+        }
+    }
+
+    /**
+     * Run the call on the calling thread with the validators of the cached entry, a 304 reuses its parsed data.
+     */
+    private HttpResponse executeConditional(Request request, Type dataType, String key) {
+        final MemoryCache.Entry cached = memoryCache.get(key);
+        if (cached != null) {
+            request = conditionalRequest(request, cached);
+        }
+        return execute(request, response -> readResponse(response, dataType, key, cached));
+    }
+
+    private HttpResponse readResponse(Response response, Type dataType, String key, MemoryCache.Entry cached)
+            throws IOException {
+        if (cached != null && response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            response.close();
+            return memoryCache.revalidate(key, cached, response);
+        }
+        return parseResponse(response, dataType);
+    }
+
+    /**
+     * Run the call, coalesced with identical calls when enabled,
+     * the parsed response is handed to the result callback on the network thread.
+     * With a cache key, the validators of the cached entry are sent and a 304 reuses its parsed data.
+     */
+    private void fetch(Request request, Type dataType, String key, HttpCallback<Object> result) {
+        RequestCoalescer.Waiter leader = null;
+        if (coalescer != null) {
+            String flightKey = key != null ? key : requestKey(request, dataType);
+            final Object waiterTag = tag;
+            final HttpCallback<Object> onShared = result;
+            tagRegistry.add(waiterTag, leaveFlight);
+            final RequestCoalescer.Waiter joined = coalescer.join(flightKey, resp -> {
+                tagRegistry.remove(waiterTag, leaveFlight);
+                onShared.onResult(resp);
+            });
+            waiter = joined;
+            if (!joined.isLeader() || !coalescer.start(joined, GetRequest.super::cancel)) {
+                return;
+            }
+            leader = joined;
+            result = resp -> coalescer.complete(joined, resp);
+        }
+        final MemoryCache.Entry cached = key != null ? memoryCache.get(key) : null;
+        if (cached != null) {
+            request = conditionalRequest(request, cached);
+        }
+        final HttpCallback<Object> onResult = result;
+        Callback callback = new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                HttpResponse resp;
+                try {
+                    resp = readResponse(response, dataType, key, cached);
+                } catch (IOException e) {
+                    resp = HttpResponse.error(-101, e.getMessage());
+                }
+                onResult.onResult(resp);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onResult.onResult(HttpResponse.error(-101, e.getMessage()));
+            }
+        };
+        if (hedgePolicy != null) {
+            new Hedge(request, callback, hedgePolicy).start();
+        } else {
+            enqueue(request, callback);
+        }
+        if (leader != null && leader.isFlightCancelled()) {
+            // every waiter left while the call was being enqueued
+            super.cancel();
+        }
+    }
+
+    /**
+     * A request sharing a coalesced call only detaches from it and is not called back,
+     * the call is cancelled when its last waiter leaves.
+     */
+    @Override
+    public void cancel() {
+        RequestCoalescer.Waiter joined = waiter;
+        if (joined == null) {
+            super.cancel();
+            return;
+        }
+        tagRegistry.remove(tag, leaveFlight);
+        coalescer.leave(joined);
+    }
+
+    @Override
+    Object callTag() {
+        // a coalesced call serves other requests too, their tags reach it through leaveFlight
+        return waiter != null ? null : tag;
+    }
+
+    @Override
+    void deliver(HttpCallback callback, HttpResponse httpResponse) {
+        final RequestCoalescer.Waiter joined = waiter;
+        if (joined == null || callback == null) {
+            super.deliver(callback, httpResponse);
+            return;
+        }
+        super.deliver(resp -> {
+            if (!joined.isCancelled()) {
+                callback.onResult(resp);
+            }
+        }, httpResponse);
+    }
+
+    /**
+     * The original call and, once the hedge delay passed without a response and the budget allows it,
+     * a second one. The first response is delivered and the other call cancelled,
+     * a failure is only delivered when no other call is still running.
+     */
+    private class Hedge {
+        private final Request request;
+        private final Callback delegate;
+        private final HedgePolicy policy;
+        private final long start = System.nanoTime();
+        private final Call[] legs = new Call[2];
+        private int running;
+        private boolean done;
+        private ScheduledFuture<?> timer;
+
+        Hedge(Request request, Callback delegate, HedgePolicy policy) {
+            this.request = request;
+            this.delegate = delegate;
+            this.policy = policy;
+        }
+
+        void start() {
+            policy.onRequest();
+            synchronized (this) {
+                running = 1;
+            }
+            Call primary = enqueueTracked(request, new Leg(0));
+            synchronized (this) {
+                legs[0] = primary;
+                if (done) {
+                    return;
+                }
+            }
+            ScheduledFuture<?> future = RetryCallback.scheduler()
+                    .schedule(this::hedge, policy.delayMillis(), TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                timer = future;
+                if (done) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                // checked and spent under the lock, a primary completing meanwhile does not waste a token
+                if (done || legs[0].isCanceled() || !policy.tryAcquireHedge()) {
+                    return;
+                }
+                running++;
+            }
+            Call hedge = enqueueTracked(request, new Leg(1));
+            synchronized (this) {
+                legs[1] = hedge;
+                if (done) {
+                    hedge.cancel();
+                }
+            }
+        }
+
+        /**
+         * Mark the hedge finished, cancel the timer and the calls other than the given leg.
+         */
+        private synchronized boolean finish(int leg) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            for (int i = 0; i < legs.length; i++) {
+                if (i != leg && legs[i] != null) {
+                    legs[i].cancel();
+                }
+            }
+            return true;
+        }
+
+        private class Leg implements Callback {
+            private final int index;
+
+            Leg(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (!finish(index)) {
+                    response.close();
+                    return;
+                }
+                policy.onResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), index == 1);
+                delegate.onResponse(call, response);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                synchronized (Hedge.this) {
+                    running--;
+                    // another call may still answer, unless this one was cancelled by the caller
+                    if (running > 0 && !call.isCanceled()) {
+                        return;
+                    }
+                }
+                if (finish(index)) {
+                    delegate.onFailure(call, e);
+                }
+            }
+        }
+    }
+
+    private static Request conditionalRequest(Request request, MemoryCache.Entry cached) {
+        String etag = cached.getETag();
+        String lastModified = cached.getLastModified();
+        if (etag == null && lastModified == null) {
+            return request;
+        }
+        Request.Builder builder = request.newBuilder();
+        if (etag != null && request.header("If-None-Match") == null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null && request.header("If-Modified-Since") == null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Canonical key of a request: url with sorted query, sorted headers and the type the data is parsed to.
+     */
+    static String requestKey(Request request, Type dataType) {
+        StringBuilder sb = new StringBuilder(request.method()).append(' ').append(request.url());
+        Map<String, String> sortedHeaders = new TreeMap<>();
+        for (String name : request.headers().names()) {
+            sortedHeaders.put(name, request.headers().get(name));
+        }
+        for (Map.Entry<String, String> entry : sortedHeaders.entrySet()) {
+            sb.append('\n').append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        sb.append('\n').append(dataType);
+        return sb.toString();
     }
 
     @Override
@@ -0,0 +1,44 @@
+package httper;
+
+import java.io.IOException;
+
+import httper.util.BodyUtil;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Gzips the body while it is written, the compressed length is not known in advance.
+ */
+class GzipRequestBody extends RequestBody {
+
+    private final RequestBody body;
+
+    GzipRequestBody(RequestBody body) {
+        this.body = body;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return BodyUtil.isOneShot(body);
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+        body.writeTo(gzipSink);
+        gzipSink.close();
+    }
+}
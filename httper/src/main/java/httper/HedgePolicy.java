@@ -0,0 +1,161 @@
+package httper;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging of {@link GetRequest}: when no response arrived after the hedge delay a second identical call is sent,
+ * the first response wins and the other call is cancelled. Set with {@link Httper.Builder#setHedgePolicy}
+ * or {@link GetRequest#hedge(HedgePolicy)}.
+ * <p>
+ * The delay is fixed, or follows a percentile of the recent response times. Every request earns
+ * {@code budgetPercent / 100} of a hedge and a hedge spends a whole one, so hedges stay below that share
+ * of the traffic sharing the policy, bursts are capped by {@code maxBurst}.
+ */
+public class HedgePolicy {
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    final long fixedDelayMillis;
+    final double percentile;
+    final long minDelayMillis;
+    final long maxDelayMillis;
+    final double budgetRatio;
+    final double maxBurst;
+
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount;
+    private int sampleIndex;
+    private int samplesSinceRecompute;
+    private boolean warm;
+    private volatile long adaptiveDelayMillis;
+    private double tokens;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    HedgePolicy(Builder builder) {
+        this.fixedDelayMillis = builder.fixedDelayMillis;
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.budgetRatio = builder.budgetPercent / 100;
+        this.maxBurst = builder.maxBurst;
+        this.adaptiveDelayMillis = builder.maxDelayMillis;
+    }
+
+    /**
+     * Delay before the hedge is sent, the max delay until enough responses were timed.
+     */
+    long delayMillis() {
+        return fixedDelayMillis > 0 ? fixedDelayMillis : adaptiveDelayMillis;
+    }
+
+    synchronized void onRequest() {
+        requestCount.incrementAndGet();
+        tokens = Math.min(maxBurst, tokens + budgetRatio);
+    }
+
+    synchronized boolean tryAcquireHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    void onResponse(long elapsedMillis, boolean hedgeWon) {
+        if (hedgeWon) {
+            hedgeWinCount.incrementAndGet();
+        }
+        if (fixedDelayMillis > 0) {
+            return;
+        }
+        long[] window = null;
+        synchronized (this) {
+            samples[sampleIndex] = elapsedMillis;
+            sampleIndex = (sampleIndex + 1) % WINDOW;
+            if (sampleCount < WINDOW) {
+                sampleCount++;
+            }
+            samplesSinceRecompute++;
+            // first computed as soon as there are enough samples, then every RECOMPUTE_EVERY samples
+            if (sampleCount >= MIN_SAMPLES && (!warm || samplesSinceRecompute >= RECOMPUTE_EVERY)) {
+                warm = true;
+                samplesSinceRecompute = 0;
+                window = Arrays.copyOf(samples, sampleCount);
+            }
+        }
+        if (window != null) {
+            Arrays.sort(window);
+            long delay = window[Math.min(window.length - 1, (int) Math.ceil(percentile * window.length) - 1)];
+            adaptiveDelayMillis = Math.max(minDelayMillis, Math.min(maxDelayMillis, delay));
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Hedges that answered before the original call.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    public static class Builder {
+        long fixedDelayMillis;
+        double percentile = 0.95;
+        long minDelayMillis = 50;
+        long maxDelayMillis = 2_000;
+        double budgetPercent = 5;
+        double maxBurst = 10;
+
+        /**
+         * Send the hedge after a fixed delay instead of the tracked percentile.
+         */
+        public Builder delay(long delay, TimeUnit timeUnit) {
+            if (delay <= 0) throw new IllegalArgumentException("delay <= 0");
+            this.fixedDelayMillis = timeUnit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Send the hedge after the given percentile of the recent response times, bounded by min and max.
+         */
+        public Builder percentileDelay(double percentile, long minDelay, long maxDelay, TimeUnit timeUnit) {
+            if (percentile <= 0 || percentile >= 1) throw new IllegalArgumentException("percentile not in (0, 1)");
+            if (minDelay < 0 || maxDelay < minDelay) throw new IllegalArgumentException("invalid delay bounds");
+            this.fixedDelayMillis = 0;
+            this.percentile = percentile;
+            this.minDelayMillis = timeUnit.toMillis(minDelay);
+            this.maxDelayMillis = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Hedges allowed per 100 requests, and how many may be spent back to back.
+         */
+        public Builder budget(double percent, int maxBurst) {
+            if (percent < 0 || percent > 100) throw new IllegalArgumentException("percent not in [0, 100]");
+            if (maxBurst < 1) throw new IllegalArgumentException("maxBurst < 1");
+            this.budgetPercent = percent;
+            this.maxBurst = maxBurst;
+            return this;
+        }
+
+        public HedgePolicy build() {
+            return new HedgePolicy(this);
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package httper;
 
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import httper.interceptor.TimeoutInterceptor;
 import httper.util.TypeUtil;
+import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Headers;
@@ -17,6 +24,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * @see GetRequest
@@ -31,22 +39,34 @@ public abstract class HttpRequest<T> {
     public static final MediaType MEDIA_TYPE_STREAM = MediaType.parse("application/octet-stream");
     public static final MediaType MEDIA_TYPE_MARKDOWN = MediaType.parse("text/x-markdown; charset=utf-8");
 
+    // how often a synchronous retry backoff checks for cancellation
+    private static final long BACKOFF_CHECK_MILLIS = 50;
+
     boolean debug;
     String baseUrl;
     OkHttpClient httpClient;
     Executor executor;
-    Call call;
+    CallTagRegistry tagRegistry;
+    RequestListener requestListener;
+    RetryPolicy retryPolicy;
+    volatile Call call;
 
     protected String url;
     protected Object tag;
     protected long timeout;
     protected Map<String, String> headers;
+    protected CacheControl.Builder cacheControl;
+    protected long progressIntervalMillis = ProgressDispatcher.DEFAULT_INTERVAL_MILLIS;
+    protected float progressPercentStep = ProgressDispatcher.DEFAULT_PERCENT_STEP;
 
     public HttpRequest(Httper httper) {
         debug = httper.debug;
         baseUrl = httper.baseUrl;
         executor = httper.executor;
         httpClient = httper.httpClient;
+        tagRegistry = httper.tagRegistry;
+        requestListener = httper.requestListener;
+        retryPolicy = httper.retryPolicy;
 
         if (httper.headers != null) {
             headers = new HashMap<>(httper.headers);
@@ -92,11 +112,86 @@ public abstract class HttpRequest<T> {
         return (T) this;
     }
 
+    /**
+     * How often upload and download progress is reported, see {@link ProgressDispatcher}.
+     */
+    public T progressThrottle(long intervalMillis, float percentStep) {
+        this.progressIntervalMillis = intervalMillis;
+        this.progressPercentStep = percentStep;
+        return (T) this;
+    }
+
+    /**
+     * Retry policy of this request, {@link RetryPolicy#NONE} turns off the one of the httper.
+     */
+    public T retry(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return (T) this;
+    }
+
     public T tag(Object tag) {
         this.tag = tag;
         return (T) this;
     }
 
+    /**
+     * Cache-Control of the request, used by the disk cache of {@link Httper.Builder#setCache}.
+     */
+    public T cacheControl(CacheControl cacheControl) {
+        this.cacheControl = null;
+        if (cacheControl != null) {
+            CacheControl.Builder builder = cacheControlBuilder();
+            if (cacheControl.noCache()) builder.noCache();
+            if (cacheControl.noStore()) builder.noStore();
+            if (cacheControl.onlyIfCached()) builder.onlyIfCached();
+            if (cacheControl.noTransform()) builder.noTransform();
+            if (cacheControl.immutable()) builder.immutable();
+            if (cacheControl.maxAgeSeconds() != -1) builder.maxAge(cacheControl.maxAgeSeconds(), TimeUnit.SECONDS);
+            if (cacheControl.maxStaleSeconds() != -1) builder.maxStale(cacheControl.maxStaleSeconds(), TimeUnit.SECONDS);
+            if (cacheControl.minFreshSeconds() != -1) builder.minFresh(cacheControl.minFreshSeconds(), TimeUnit.SECONDS);
+        }
+        return (T) this;
+    }
+
+    /**
+     * Serve from the disk cache whatever its age, fails with 504 if nothing is cached.
+     */
+    public T forceCache() {
+        cacheControlBuilder().onlyIfCached().maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        return (T) this;
+    }
+
+    /**
+     * Only use the disk cache, fails with 504 if the cached response is missing or too stale.
+     */
+    public T onlyIfCached() {
+        cacheControlBuilder().onlyIfCached();
+        return (T) this;
+    }
+
+    /**
+     * Accept a cached response that expired at most maxStale ago.
+     */
+    public T maxStale(int maxStale, TimeUnit timeUnit) {
+        cacheControlBuilder().maxStale(maxStale, timeUnit);
+        return (T) this;
+    }
+
+    /**
+     * Neither read nor write the disk cache.
+     */
+    public T noStore() {
+        cacheControlBuilder().noStore();
+        return (T) this;
+    }
+
+    private CacheControl.Builder cacheControlBuilder() {
+        if (cacheControl == null) {
+            cacheControl = new CacheControl.Builder();
+        }
+        return cacheControl;
+    }
+
     public void cancel() {
         if (call != null) {
             call.cancel();
@@ -104,6 +199,10 @@ public abstract class HttpRequest<T> {
         }
     }
 
+    protected ProgressDispatcher newProgressDispatcher(ProgressDispatcher.Listener listener) {
+        return new ProgressDispatcher(executor, listener, progressIntervalMillis, progressPercentStep);
+    }
+
     protected RequestBody generateRequestBody() {
         return null;
     }
@@ -120,17 +219,22 @@ public abstract class HttpRequest<T> {
         return httpUrl;
     }
 
+    /**
+     * Per request timeouts are applied by {@link TimeoutInterceptor}, the shared client is never rebuilt.
+     */
     protected OkHttpClient generateOkClient() {
-        if (timeout > 0) {
-            return httpClient.newBuilder()
-                    .connectTimeout(timeout, TimeUnit.MILLISECONDS)
-                    .readTimeout(timeout, TimeUnit.MILLISECONDS)
-                    .writeTimeout(timeout, TimeUnit.MILLISECONDS)
-                    .build();
-        }
         return httpClient;
     }
 
+    protected Request buildRequest() {
+        Request.Builder builder = generateRequest().url(generateUrl());
+        RequestBody body = generateRequestBody();
+        if (body != null) {
+            builder.post(body);
+        }
+        return builder.build();
+    }
+
     protected Request.Builder generateRequest() {
         Request.Builder builder = new Request.Builder();
         if (headers != null && !headers.isEmpty()) {
@@ -139,44 +243,277 @@ public abstract class HttpRequest<T> {
         if (tag != null) {
             builder.tag(tag);
         }
+        if (cacheControl != null) {
+            builder.cacheControl(cacheControl.build());
+        }
+        if (requestListener != null) {
+            builder.tag(HttpRequest.class, this);
+        }
+        if (timeout > 0) {
+            builder.tag(TimeoutInterceptor.Timeout.class, new TimeoutInterceptor.Timeout(timeout));
+        }
         return builder;
     }
 
+    /**
+     * Enqueue the request on the client, tagged calls are tracked until they complete
+     * so {@link Httper#cancel(Object)} only touches the matching calls.
+     * Failed attempts are sent again when the retry policy allows it.
+     */
+    protected void enqueue(Request request, Callback callback) {
+        enqueueTracked(request, callback);
+    }
+
+    /**
+     * Same as {@link #enqueue}, returns the first call of the request, cancelling it also stops its retries.
+     */
+    Call enqueueTracked(Request request, Callback callback) {
+        final Call newCall = trackCall(request);
+        final RetryPolicy policy = retryPolicy;
+        if (policy != null && policy.canRetry(request)) {
+            callback = new RetryCallback(this, request, policy, newCall, callback);
+        }
+        enqueueCall(newCall, callback);
+        return newCall;
+    }
+
+    /**
+     * Create the call of the request, it becomes the current call and is registered under the tag.
+     */
+    Call trackCall(Request request) {
+        if (requestListener != null) {
+            // retries and hedges reuse the request, each call gets its own enqueue time
+            request = request.newBuilder()
+                    .tag(RequestListenerInterceptor.EnqueueTime.class, new RequestListenerInterceptor.EnqueueTime())
+                    .build();
+        }
+        final Call newCall = generateOkClient().newCall(request);
+        call = newCall;
+        tagRegistry.add(callTag(), newCall);
+        return newCall;
+    }
+
+    void enqueueCall(Call newCall, Callback callback) {
+        RequestListenerInterceptor.EnqueueTime enqueueTime =
+                newCall.request().tag(RequestListenerInterceptor.EnqueueTime.class);
+        if (enqueueTime != null) {
+            enqueueTime.nanos = System.nanoTime();
+        }
+        final Object callTag = callTag();
+        newCall.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call c, Response response) throws IOException {
+                try {
+                    callback.onResponse(c, response);
+                } finally {
+                    tagRegistry.remove(callTag, newCall);
+                }
+            }
+
+            @Override
+            public void onFailure(Call c, IOException e) {
+                try {
+                    callback.onFailure(c, e);
+                } finally {
+                    tagRegistry.remove(callTag, newCall);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the call on the calling thread, without going through the dispatcher or the executor.
+     * Retries wait on the calling thread, cancelling the request or its tag ends the wait.
+     */
+    public <E> HttpResponse<E> execute(Type dataType) {
+        return execute(buildRequest(), response -> parseResponse(response, dataType));
+    }
+
+    /**
+     * The retry loop of {@link #execute(Type)}, the final response is read by the handler on the calling thread.
+     */
+    <E> HttpResponse<E> execute(Request request, ResponseHandler handler) {
+        final RetryPolicy policy = retryPolicy;
+        final boolean retry = policy != null && policy.canRetry(request);
+        Call newCall = trackCall(request);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                long delay;
+                try {
+                    Response response = newCall.execute();
+                    delay = retry ? policy.delayAfterResponse(attempt, response) : -1;
+                    if (delay < 0) {
+                        return handler.handle(response);
+                    }
+                    response.close();
+                } catch (IOException e) {
+                    delay = retry ? policy.delayAfterFailure(attempt, newCall.isCanceled()) : -1;
+                    if (delay < 0) {
+                        return HttpResponse.error(-101, e.getMessage());
+                    }
+                }
+                // the next call is tracked before the backoff, so a cancel during the wait reaches it
+                Call next = trackCall(request);
+                untrackCall(newCall);
+                newCall = next;
+                if (!awaitBackoff(newCall, delay)) {
+                    return HttpResponse.error(-101, "Canceled");
+                }
+            }
+        } finally {
+            untrackCall(newCall);
+        }
+    }
+
+    interface ResponseHandler {
+        HttpResponse handle(Response response) throws IOException;
+    }
+
+    private void untrackCall(Call trackedCall) {
+        tagRegistry.remove(callTag(), trackedCall);
+    }
+
+    /**
+     * Tag the calls are registered under, the tag of the request unless it shares them with others.
+     */
+    Object callTag() {
+        return tag;
+    }
+
+    /**
+     * Sleep for the backoff, false as soon as the call is cancelled or the thread interrupted.
+     */
+    private static boolean awaitBackoff(Call next, long delayMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        try {
+            while (!next.isCanceled()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return true;
+                }
+                Thread.sleep(Math.min(remaining, BACKOFF_CHECK_MILLIS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            next.cancel();
+        }
+        return false;
+    }
+
+    public <E> HttpResponse<E> execute(Class<E> dataClass) {
+        return execute((Type) dataClass);
+    }
+
+    /**
+     * Run the call asynchronously, the future is completed on the network thread without going through the executor.
+     * Cancelling the future cancels the call.
+     * Requires API 24 for {@link CompletableFuture}, use {@code request(HttpCallback)} below that.
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    public <E> CompletableFuture<HttpResponse<E>> requestAsync(Type dataType) {
+        final CallFuture<HttpResponse<E>> future = new CallFuture<>();
+        enqueue(buildRequest(), new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                HttpResponse<E> resp;
+                try {
+                    resp = parseResponse(response, dataType);
+                } catch (IOException e) {
+                    resp = HttpResponse.error(-101, e.getMessage());
+                }
+                future.complete(resp);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.complete(HttpResponse.error(-101, e.getMessage()));
+            }
+        });
+        future.setRequest(this);
+        return future;
+    }
+
+    /**
+     * @see #requestAsync(Type)
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    public <E> CompletableFuture<HttpResponse<E>> requestAsync(Class<E> dataClass) {
+        return requestAsync((Type) dataClass);
+    }
+
     protected <E> Callback generateCallback(HttpCallback<E> callback) {
-        Type dataType = TypeUtil.getGenericInterfaceTypeParameter(callback);
+        Type dataType = TypeUtil.getCachedGenericInterfaceTypeParameter(callback);
         return new Callback() {
             @Override
             public void onResponse(Call call, Response response) throws IOException {
-                final HttpResponse resp = HttpResponse.processResponse(response);
-                final String str = response.body().string();
-                resp.data = str;
-                if (response.isSuccessful()) {
-                    if (dataType != null && !String.class.equals(dataType)) {
-                        try {
-                            resp.data = Parser.getParserFactory().fromJson(str, dataType);
-                        } catch (Exception e) {
-                            resp.error = new HttpResponse.Error(-102, e.getMessage());
-                        }
-                    }
-                }
-                onResult(resp);
+                deliver(callback, parseResponse(response, dataType));
             }
 
             @Override
             public void onFailure(Call call, IOException e) {
-                onResult(HttpResponse.error(-101, e.getMessage()));
+                deliver(callback, HttpResponse.error(-101, e.getMessage()));
             }
+        };
+    }
 
-            private void onResult(HttpResponse httpResponse) {
-                if (callback != null) {
-                    if (executor != null) {
-                        executor.execute(() -> callback.onResult(httpResponse));
-                    } else {
-                        callback.onResult(httpResponse);
-                    }
+    protected HttpResponse parseResponse(Response response, Type dataType) throws IOException {
+        final HttpResponse resp = HttpResponse.processResponse(response);
+        long parseStart = requestListener != null ? System.nanoTime() : 0;
+        try (ResponseBody body = response.body()) {
+            if (response.isSuccessful() && dataType != null && !String.class.equals(dataType)) {
+                // decode straight from the stream, the body is never materialized as a String
+                try {
+                    resp.data = Parser.getParserFactory().fromJson(body.charStream(), dataType);
+                } catch (Exception e) {
+                    resp.error = new HttpResponse.Error(-102, e.getMessage());
                 }
+            } else {
+                resp.data = body.string();
             }
-        };
+        }
+        if (requestListener != null) {
+            requestListener.onStage(this, RequestListener.Stage.PARSE, System.nanoTime() - parseStart);
+        }
+        return resp;
+    }
+
+    /**
+     * Deliver through the executor of the request, the time spent waiting on it is reported to the listener.
+     */
+    void deliver(HttpCallback callback, HttpResponse httpResponse) {
+        if (callback != null) {
+            deliver(() -> callback.onResult(httpResponse));
+        }
+    }
+
+    /**
+     * Same as {@link #deliver(HttpCallback, HttpResponse)}, for results that are not a single response.
+     */
+    void deliver(Runnable delivery) {
+        final RequestListener listener = requestListener;
+        Runnable task = delivery;
+        if (listener != null) {
+            final long postedAt = System.nanoTime();
+            task = () -> {
+                listener.onStage(this, RequestListener.Stage.DELIVERY, System.nanoTime() - postedAt);
+                delivery.run();
+            };
+        }
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    static void deliverResult(HttpCallback callback, Executor executor, HttpResponse httpResponse) {
+        if (callback != null) {
+            if (executor != null) {
+                executor.execute(() -> callback.onResult(httpResponse));
+            } else {
+                callback.onResult(httpResponse);
+            }
+        }
     }
 
 }
@@ -17,6 +17,11 @@ public class HttpResponse<T> implements Serializable {
 
     public Error error;
 
+    /**
+     * True when the server answered 304 and the data is the previously parsed object.
+     */
+    public boolean revalidated;
+
     public static <T> HttpResponse<T> error(int code, String errorMsg) {
         HttpResponse<T> resp = new HttpResponse<>();
         resp.error = new Error(code, errorMsg);
@@ -40,6 +45,20 @@ public class HttpResponse<T> implements Serializable {
         return resp;
     }
 
+    /**
+     * Shallow copy with its own header map, the data object is shared.
+     */
+    HttpResponse<T> copy() {
+        HttpResponse<T> resp = new HttpResponse<>();
+        resp.code = code;
+        resp.message = message;
+        resp.header = header != null ? new HashMap<>(header) : null;
+        resp.data = data;
+        resp.error = error != null ? new Error(error.code, error.msg) : null;
+        resp.revalidated = revalidated;
+        return resp;
+    }
+
     public boolean isSuccess() {
         return error == null;
     }
@@ -52,6 +71,7 @@ public class HttpResponse<T> implements Serializable {
                 ", header=" + header +
                 ", data=" + data +
                 ", error=" + error +
+                ", revalidated=" + revalidated +
                 '}';
     }
 
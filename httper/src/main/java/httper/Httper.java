@@ -1,5 +1,7 @@
 package httper;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -9,9 +11,12 @@ import java.util.Objects;
 import java.util.concurrent.Executor;
 
 import httper.interceptor.LogInterceptor;
+import httper.interceptor.TimeoutInterceptor;
+import httper.metrics.NetworkMetrics;
 import httper.util.MainExecutor;
 import httper.util.SSLUtil;
-import okhttp3.Call;
+import okhttp3.Cache;
+import okhttp3.EventListener;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
@@ -25,6 +30,16 @@ public class Httper {
     Executor executor;
     OkHttpClient httpClient;
 
+    final CallTagRegistry tagRegistry;
+    RequestCoalescer coalescer;
+    MemoryCache memoryCache;
+    boolean gzipRequest;
+    long gzipMinSize;
+    NetworkMetrics networkMetrics;
+    RequestListener requestListener;
+    RetryPolicy retryPolicy;
+    HedgePolicy hedgePolicy;
+
     Httper(Builder builder) {
         this.debug = builder.debug;
         this.baseUrl = builder.baseUrl;
@@ -32,6 +47,17 @@ public class Httper {
         this.params = builder.params;
         this.executor = builder.executor;
         this.httpClient = builder.httpClient;
+        this.tagRegistry = builder.tagRegistry != null ? builder.tagRegistry : new CallTagRegistry();
+        if (builder.coalesceGet) {
+            this.coalescer = new RequestCoalescer();
+        }
+        this.memoryCache = builder.memoryCache;
+        this.gzipRequest = builder.gzipRequest;
+        this.gzipMinSize = builder.gzipMinSize;
+        this.networkMetrics = builder.networkMetrics;
+        this.requestListener = builder.requestListener;
+        this.retryPolicy = builder.retryPolicy;
+        this.hedgePolicy = builder.hedgePolicy;
     }
 
     public GetRequest get(String url) {
@@ -50,6 +76,14 @@ public class Httper {
         return new UploadRequest(this).url(url);
     }
 
+    public ChunkedUploadRequest uploadChunked(String url) {
+        return new ChunkedUploadRequest(this).url(url);
+    }
+
+    public BatchUploadRequest uploadBatch(String url) {
+        return new BatchUploadRequest(this).url(url);
+    }
+
 
     public boolean isDebug() {
         return debug;
@@ -75,24 +109,72 @@ public class Httper {
         return httpClient;
     }
 
+    public boolean isCoalesceGet() {
+        return coalescer != null;
+    }
+
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public NetworkMetrics getNetworkMetrics() {
+        return networkMetrics;
+    }
+
+    public RequestListener getRequestListener() {
+        return requestListener;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    public Cache getCache() {
+        return httpClient.cache();
+    }
+
+    /**
+     * Counters of the disk cache, null if the http client has no cache.
+     */
+    public CacheStats getCacheStats() {
+        Cache cache = httpClient.cache();
+        return cache != null ? new CacheStats(cache) : null;
+    }
+
     public Builder newBuilder() {
         return new Builder(this);
     }
 
 
+    /**
+     * Cancel the calls enqueued with the tag by this httper and the httpers derived from it with the same http client.
+     */
     public void cancel(Object tag) {
-        for (Call call : httpClient.dispatcher().queuedCalls()) {
-            if (call.request().tag() == tag) {
-                call.cancel();
-            }
+        if (tag != null) {
+            tagRegistry.cancel(tag);
         }
-        for (Call call : httpClient.dispatcher().runningCalls()) {
-            if (call.request().tag() == tag) {
-                call.cancel();
-            }
+    }
+
+    /**
+     * Cancel the calls of each tag, {@code cancel(null)} resolves here and is a no-op like a single null tag.
+     */
+    public void cancel(Object... tags) {
+        if (tags == null) {
+            return;
+        }
+        for (Object tag : tags) {
+            cancel(tag);
         }
     }
 
+    /**
+     * Cancel every queued and running call of this httper, tagged or not, and of the httpers sharing its tags.
+     * Other users of the http client are not touched.
+     */
+    public void cancelAll() {
+        tagRegistry.cancelAll();
+    }
+
     public static class Builder {
         boolean debug;
         String baseUrl;
@@ -100,6 +182,18 @@ public class Httper {
         Map<String, String> params;
         Executor executor;
         OkHttpClient httpClient;
+        boolean coalesceGet;
+        MemoryCache memoryCache;
+        File cacheDirectory;
+        long cacheMaxSize;
+        boolean gzipRequest;
+        long gzipMinSize = 1024;
+        NetworkMetrics networkMetrics;
+        RequestListener requestListener;
+        RetryPolicy retryPolicy;
+        HedgePolicy hedgePolicy;
+        // shared with the httper this builder derives from, until another http client is set
+        CallTagRegistry tagRegistry;
 
         public Builder() {
             executor = new MainExecutor();
@@ -115,6 +209,15 @@ public class Httper {
             this.params = httper.params != null ? new HashMap<>(httper.params) : null;
             this.executor = httper.executor;
             this.httpClient = httper.httpClient;
+            this.coalesceGet = httper.coalescer != null;
+            this.memoryCache = httper.memoryCache;
+            this.gzipRequest = httper.gzipRequest;
+            this.gzipMinSize = httper.gzipMinSize;
+            this.networkMetrics = httper.networkMetrics;
+            this.requestListener = httper.requestListener;
+            this.retryPolicy = httper.retryPolicy;
+            this.hedgePolicy = httper.hedgePolicy;
+            this.tagRegistry = httper.tagRegistry;
         }
 
         public Builder setDebug(boolean debug) {
@@ -165,16 +268,101 @@ public class Httper {
 
         public Builder setHttpClient(OkHttpClient httpClient) {
             if (httpClient == null) throw new IllegalArgumentException("httpClient == null");
+            if (httpClient != this.httpClient) {
+                tagRegistry = null;
+            }
             this.httpClient = httpClient;
             return this;
         }
 
+        /**
+         * Let concurrent identical get requests (same url, query and headers) share one network call
+         * and one parsed result.
+         */
+        public Builder setCoalesceGet(boolean coalesceGet) {
+            this.coalesceGet = coalesceGet;
+            return this;
+        }
+
+        /**
+         * Keep up to maxEntries parsed get responses in memory, used according to {@link GetRequest#cacheMode(CacheMode)}.
+         */
+        public Builder setMemoryCache(int maxEntries) {
+            this.memoryCache = maxEntries > 0 ? new MemoryCache(maxEntries) : null;
+            return this;
+        }
+
+        /**
+         * Cache responses on disk, bounded to maxSize bytes. A directory must be used by one cache only.
+         */
+        public Builder setCache(File directory, long maxSize) {
+            if (directory == null) throw new IllegalArgumentException("directory == null");
+            if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+            this.cacheDirectory = directory;
+            this.cacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Gzip post json and form bodies of at least minSize bytes by default, sent with Content-Encoding: gzip.
+         */
+        public Builder setGzipRequest(boolean gzipRequest, long minSize) {
+            if (minSize < 0) throw new IllegalArgumentException("minSize < 0");
+            this.gzipRequest = gzipRequest;
+            this.gzipMinSize = minSize;
+            return this;
+        }
+
+        /**
+         * Record the network phase durations of every call, the event listener factory of the http client is kept.
+         */
+        public Builder setNetworkMetrics(NetworkMetrics networkMetrics) {
+            this.networkMetrics = networkMetrics;
+            return this;
+        }
+
+        /**
+         * Report how long serialization, dispatcher queueing, parsing and callback delivery take per request.
+         */
+        public Builder setRequestListener(RequestListener requestListener) {
+            this.requestListener = requestListener;
+            return this;
+        }
+
+        /**
+         * Default retry policy of the requests, none when null.
+         */
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Hedge the GET requests, the hedge budget is shared by every request using the policy.
+         */
+        public Builder setHedgePolicy(HedgePolicy hedgePolicy) {
+            this.hedgePolicy = hedgePolicy;
+            return this;
+        }
+
         public Httper build() {
             if (debug) {
                 if (!hasLogInterceptor()) addLogInterceptor();
             } else {
                 if (hasLogInterceptor()) removeLogInterceptor();
             }
+            if (!hasTimeoutInterceptor()) addTimeoutInterceptor();
+            if (requestListener != null && !hasRequestListenerInterceptor()) addRequestListenerInterceptor();
+            if (networkMetrics != null) {
+                EventListener.Factory factory = networkMetrics.wrap(httpClient.eventListenerFactory());
+                if (factory != httpClient.eventListenerFactory()) {
+                    httpClient = httpClient.newBuilder().eventListenerFactory(factory).build();
+                }
+            }
+            if (cacheDirectory != null) {
+                httpClient = httpClient.newBuilder().cache(new Cache(cacheDirectory, cacheMaxSize)).build();
+                cacheDirectory = null;
+            }
             if (headers != null) {
                 headers = Collections.unmodifiableMap(headers);
             }
@@ -194,6 +382,38 @@ public class Httper {
             return false;
         }
 
+        private boolean hasTimeoutInterceptor() {
+            List<Interceptor> list = httpClient.interceptors();
+            for (Interceptor interceptor : list) {
+                if (interceptor instanceof TimeoutInterceptor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void addTimeoutInterceptor() {
+            OkHttpClient.Builder builder = httpClient.newBuilder();
+            builder.interceptors().add(0, new TimeoutInterceptor());
+            httpClient = builder.build();
+        }
+
+        private boolean hasRequestListenerInterceptor() {
+            List<Interceptor> list = httpClient.interceptors();
+            for (Interceptor interceptor : list) {
+                if (interceptor instanceof RequestListenerInterceptor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void addRequestListenerInterceptor() {
+            OkHttpClient.Builder builder = httpClient.newBuilder();
+            builder.interceptors().add(0, new RequestListenerInterceptor());
+            httpClient = builder.build();
+        }
+
         private void addLogInterceptor() {
             OkHttpClient.Builder builder = httpClient.newBuilder();
             builder.addInterceptor(new LogInterceptor());
@@ -211,4 +431,41 @@ public class Httper {
             httpClient = builder.build();
         }
     }
+
+    public static class CacheStats {
+        public final int requestCount;
+        public final int networkCount;
+        public final int hitCount;
+        public final long size;
+        public final long maxSize;
+
+        CacheStats(Cache cache) {
+            this.requestCount = cache.requestCount();
+            this.networkCount = cache.networkCount();
+            this.hitCount = cache.hitCount();
+            long size;
+            try {
+                size = cache.size();
+            } catch (IOException e) {
+                size = -1;
+            }
+            this.size = size;
+            this.maxSize = cache.maxSize();
+        }
+
+        public float hitRate() {
+            return requestCount > 0 ? (float) hitCount / requestCount : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{" +
+                    "requestCount=" + requestCount +
+                    ", networkCount=" + networkCount +
+                    ", hitCount=" + hitCount +
+                    ", size=" + size +
+                    ", maxSize=" + maxSize +
+                    '}';
+        }
+    }
 }
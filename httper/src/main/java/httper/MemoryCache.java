@@ -0,0 +1,129 @@
+package httper;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Response;
+
+/**
+ * Size bounded LRU of parsed responses, freshness follows the Cache-Control and Expires headers.
+ * Every hit is a copy of the cached response, the parsed data object itself is shared and should not be mutated.
+ */
+@SuppressWarnings("unchecked")
+public class MemoryCache {
+
+    private final LinkedHashMap<String, Entry> map;
+
+    public MemoryCache(int maxEntries) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+        this.map = new LinkedHashMap<String, MemoryCache.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoryCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized Entry get(String key) {
+        return map.get(key);
+    }
+
+    /**
+     * Cache a successful response, responses marked no-store are skipped.
+     */
+    public void put(String key, HttpResponse<?> httpResponse) {
+        if (!httpResponse.isSuccess()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Headers headers = httpResponse.header != null ? Headers.of(httpResponse.header) : Headers.of();
+        CacheControl cacheControl = CacheControl.parse(headers);
+        if (cacheControl.noStore()) {
+            return;
+        }
+        long expiresAt = now;
+        if (!cacheControl.noCache()) {
+            if (cacheControl.maxAgeSeconds() != -1) {
+                expiresAt = now + cacheControl.maxAgeSeconds() * 1000L;
+            } else {
+                Date expires = headers.getDate("Expires");
+                if (expires != null) {
+                    Date date = headers.getDate("Date");
+                    long served = date != null ? date.getTime() : now;
+                    expiresAt = now + Math.max(0, expires.getTime() - served);
+                }
+            }
+        }
+        synchronized (this) {
+            map.put(key, new Entry(httpResponse.copy(), expiresAt));
+        }
+    }
+
+    /**
+     * The server confirmed the cached entry with a 304, reuse its parsed data with the updated headers.
+     */
+    public HttpResponse<Object> revalidate(String key, Entry entry, Response notModified) {
+        HttpResponse<?> cached = entry.response;
+        HttpResponse<Object> resp = new HttpResponse<>();
+        resp.code = cached.code;
+        resp.message = cached.message;
+        resp.header = cached.header != null ? new HashMap<>(cached.header) : new HashMap<>();
+        Headers headers = notModified.headers();
+        for (String name : headers.names()) {
+            resp.header.put(name, headers.get(name));
+        }
+        resp.data = cached.data;
+        resp.revalidated = true;
+        put(key, resp);
+        return resp;
+    }
+
+    public synchronized void remove(String key) {
+        map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public static class Entry {
+        private final HttpResponse<?> response;
+        public final long expiresAt;
+
+        Entry(HttpResponse<?> response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * A copy of the cached response, changing it does not affect the cache.
+         */
+        public <T> HttpResponse<T> getResponse() {
+            return (HttpResponse<T>) response.copy();
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        public String getETag() {
+            return header("ETag");
+        }
+
+        public String getLastModified() {
+            return header("Last-Modified");
+        }
+
+        private String header(String name) {
+            return response.header != null ? Headers.of(response.header).get(name) : null;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package httper;
 
 import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Parser {
@@ -30,6 +36,25 @@ public class Parser {
     public interface Factory {
         <T> T fromJson(String str, Type type);
 
+        /**
+         * Decode from a character stream, the reader is owned by the caller.
+         * By default the stream is read into a String for {@link #fromJson(String, Type)},
+         * factories able to decode a stream directly override it.
+         */
+        default <T> T fromJson(Reader reader, Type type) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            try {
+                int len;
+                while ((len = reader.read(buffer)) != -1) {
+                    sb.append(buffer, 0, len);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return fromJson(sb.toString(), type);
+        }
+
         String toJson(Object object);
 
         Map<String, String> fromObject(Object object);
@@ -37,6 +62,9 @@ public class Parser {
 
     public static class GsonParserFactory implements Factory {
         private final Gson gson;
+        private final ConcurrentHashMap<Type, TypeAdapter<?>> adapterCache = new ConcurrentHashMap<>();
+        private final AtomicLong adapterHits = new AtomicLong();
+        private final AtomicLong adapterMisses = new AtomicLong();
 
         public GsonParserFactory() {
             this.gson = new Gson();
@@ -56,6 +84,19 @@ public class Parser {
             return null;
         }
 
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T fromJson(Reader reader, Type type) {
+            try {
+                JsonReader jsonReader = gson.newJsonReader(reader);
+                jsonReader.setLenient(true);
+                return (T) getAdapter(type).read(jsonReader);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+
         @Override
         public String toJson(Object obj) {
             try {
@@ -66,6 +107,29 @@ public class Parser {
             return null;
         }
 
+        /**
+         * Returns the adapter bound to the type, resolved through gson only the first time.
+         */
+        public TypeAdapter<?> getAdapter(Type type) {
+            TypeAdapter<?> adapter = adapterCache.get(type);
+            if (adapter != null) {
+                adapterHits.incrementAndGet();
+            } else {
+                adapterMisses.incrementAndGet();
+                adapter = gson.getAdapter(TypeToken.get(type));
+                adapterCache.putIfAbsent(type, adapter);
+            }
+            return adapter;
+        }
+
+        public long getAdapterCacheHitCount() {
+            return adapterHits.get();
+        }
+
+        public long getAdapterCacheMissCount() {
+            return adapterMisses.get();
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public Map<String, String> fromObject(Object object) {
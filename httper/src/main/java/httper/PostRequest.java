@@ -1,5 +1,6 @@
 package httper;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,9 +13,13 @@ public class PostRequest extends HttpRequest<PostRequest> {
     private final Map<String, String> formData = new HashMap<>();
     private String jsonBody;
     private RequestBody customBody;
+    private boolean gzip;
+    private long gzipMinSize;
 
     public PostRequest(Httper httper) {
         super(httper);
+        gzip = httper.gzipRequest;
+        gzipMinSize = httper.gzipMinSize;
         if (httper.params != null) {
             this.formData.putAll(httper.params);
         }
@@ -31,7 +36,13 @@ public class PostRequest extends HttpRequest<PostRequest> {
     }
 
     public PostRequest setJsonBody(Object json) {
-        return setJsonBody(Parser.getParserFactory().toJson(json));
+        if (requestListener == null) {
+            return setJsonBody(Parser.getParserFactory().toJson(json));
+        }
+        long start = System.nanoTime();
+        String jsonBody = Parser.getParserFactory().toJson(json);
+        requestListener.onStage(this, RequestListener.Stage.SERIALIZE, System.nanoTime() - start);
+        return setJsonBody(jsonBody);
     }
 
     public PostRequest setJsonBody(String jsonBody) {
@@ -46,26 +57,56 @@ public class PostRequest extends HttpRequest<PostRequest> {
         return this;
     }
 
-    public <E> void request(HttpCallback<E> callback) {
-        String httpUrl = generateUrl();
+    /**
+     * Gzip the json or form body when it is at least the min size of the httper, overrides its default.
+     */
+    public PostRequest gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
 
-        Request.Builder builder = generateRequest().url(httpUrl);
-        RequestBody body = generateRequestBody();
-        Request request = builder.post(body).build();
+    public PostRequest gzip(long minSize) {
+        if (minSize < 0) throw new IllegalArgumentException("minSize < 0");
+        this.gzip = true;
+        this.gzipMinSize = minSize;
+        return this;
+    }
 
-        call = generateOkClient().newCall(request);
-        call.enqueue(generateCallback(callback));
+    public <E> void request(HttpCallback<E> callback) {
+        enqueue(buildRequest(), generateCallback(callback));
     }
 
     @Override
     protected RequestBody generateRequestBody() {
         RequestBody body;
-        if (jsonBody != null) body = RequestBody.create(MEDIA_TYPE_JSON, jsonBody);
+        if (jsonBody != null) body = gzipIfLarge(RequestBody.create(MEDIA_TYPE_JSON, jsonBody));
         else if (customBody != null) body = customBody;
-        else body = createFormRequestBody(formData);
+        else body = gzipIfLarge(createFormRequestBody(formData));
         return body;
     }
 
+    @Override
+    protected Request buildRequest() {
+        Request request = super.buildRequest();
+        if (request.body() instanceof GzipRequestBody) {
+            return request.newBuilder().header("Content-Encoding", "gzip").build();
+        }
+        return request;
+    }
+
+    private RequestBody gzipIfLarge(RequestBody body) {
+        if (!gzip) {
+            return body;
+        }
+        long length;
+        try {
+            length = body.contentLength();
+        } catch (IOException e) {
+            length = -1;
+        }
+        return length == -1 || length >= gzipMinSize ? new GzipRequestBody(body) : body;
+    }
+
     private FormBody createFormRequestBody(Map<String, String> map) {
         FormBody.Builder builder = new FormBody.Builder();
         for (Map.Entry<String, String> entry : map.entrySet()) {
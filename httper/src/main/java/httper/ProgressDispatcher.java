@@ -0,0 +1,116 @@
+package httper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces progress events before they reach the listener: an event is delivered when both the interval
+ * and the percentage step passed since the last one, the first and the final event are always delivered.
+ * At most one event waits on the executor, a newer event replaces the values of the waiting one.
+ */
+public class ProgressDispatcher {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 250;
+    public static final float DEFAULT_PERCENT_STEP = 1f;
+
+    public interface Listener {
+        void onProgress(long bytes, long totalBytes);
+    }
+
+    private final Executor executor;
+    private final Listener listener;
+    private final long intervalMillis;
+    private final float percentStep;
+
+    private long lastTime;
+    private long lastBytes = -1;
+    private long pendingBytes;
+    private long pendingTotal;
+    private boolean pending;
+
+    /**
+     * @param executor       delivers the events, null to deliver on the calling thread
+     * @param intervalMillis min time between two events, 0 to disable
+     * @param percentStep    min progress between two events in percent of the total, 0 to disable
+     */
+    public ProgressDispatcher(Executor executor, Listener listener, long intervalMillis, float percentStep) {
+        this.executor = executor;
+        this.listener = listener;
+        this.intervalMillis = intervalMillis;
+        this.percentStep = percentStep;
+    }
+
+    public void onProgress(long bytes, long totalBytes) {
+        if (listener == null) {
+            return;
+        }
+        boolean post;
+        synchronized (this) {
+            if (!accept(bytes, totalBytes)) {
+                return;
+            }
+            lastTime = System.currentTimeMillis();
+            lastBytes = bytes;
+            pendingBytes = bytes;
+            pendingTotal = totalBytes;
+            post = !pending;
+            pending = true;
+        }
+        if (post) {
+            if (executor != null) {
+                executor.execute(this::deliver);
+            } else {
+                deliver();
+            }
+        }
+    }
+
+    /**
+     * The transfer is over, the event is delivered whatever the throttle, also when the total is unknown.
+     */
+    public void onComplete(long bytes, long totalBytes) {
+        if (listener == null) {
+            return;
+        }
+        boolean post;
+        synchronized (this) {
+            if (bytes == lastBytes && !pending) {
+                return;
+            }
+            lastTime = System.currentTimeMillis();
+            lastBytes = bytes;
+            pendingBytes = bytes;
+            pendingTotal = totalBytes;
+            post = !pending;
+            pending = true;
+        }
+        if (post) {
+            if (executor != null) {
+                executor.execute(this::deliver);
+            } else {
+                deliver();
+            }
+        }
+    }
+
+    private boolean accept(long bytes, long totalBytes) {
+        boolean last = totalBytes > 0 && bytes >= totalBytes;
+        if (lastBytes < 0 || last) {
+            return lastBytes != bytes;
+        }
+        if (System.currentTimeMillis() - lastTime < intervalMillis) {
+            return false;
+        }
+        return totalBytes <= 0 || (bytes - lastBytes) * 100f / totalBytes >= percentStep;
+    }
+
+    private void deliver() {
+        long bytes;
+        long totalBytes;
+        synchronized (this) {
+            bytes = pendingBytes;
+            totalBytes = pendingTotal;
+            pending = false;
+        }
+        listener.onProgress(bytes, totalBytes);
+    }
+}
@@ -0,0 +1,117 @@
+package httper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single flight for identical requests: the first caller of a key runs the call,
+ * callers arriving before it completes share its result, each getting its own copy of the response.
+ * A waiter that cancels is detached and not called back, the call is only cancelled with the last waiter.
+ */
+class RequestCoalescer {
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * Join the flight of the key, {@link Waiter#isLeader()} when there was none and the caller must start the call.
+     */
+    synchronized Waiter join(String key, HttpCallback<?> callback) {
+        Flight flight = flights.get(key);
+        boolean leader = flight == null;
+        if (leader) {
+            flight = new Flight(key);
+            flights.put(key, flight);
+        }
+        Waiter waiter = new Waiter(flight, callback, leader);
+        flight.waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Set how the leader cancels the call of the flight, false when every waiter already left and it must not start.
+     */
+    synchronized boolean start(Waiter leader, Runnable cancelCall) {
+        leader.flight.cancelCall = cancelCall;
+        return !leader.flight.cancelled;
+    }
+
+    /**
+     * Detach a waiter, it is not called back anymore. The call is cancelled when it was the last one.
+     */
+    void leave(Waiter waiter) {
+        Runnable cancelCall = null;
+        synchronized (this) {
+            if (waiter.cancelled) {
+                return;
+            }
+            waiter.cancelled = true;
+            Flight flight = waiter.flight;
+            if (flight.waiters.remove(waiter) && flight.waiters.isEmpty()) {
+                if (flights.get(flight.key) == flight) {
+                    flights.remove(flight.key);
+                }
+                flight.cancelled = true;
+                cancelCall = flight.cancelCall;
+            }
+        }
+        if (cancelCall != null) {
+            cancelCall.run();
+        }
+    }
+
+    void complete(Waiter leader, HttpResponse<?> httpResponse) {
+        List<Waiter> waiters;
+        synchronized (this) {
+            Flight flight = leader.flight;
+            if (flights.get(flight.key) == flight) {
+                flights.remove(flight.key);
+            }
+            waiters = new ArrayList<>(flight.waiters);
+            flight.waiters.clear();
+        }
+        for (Waiter waiter : waiters) {
+            HttpRequest.deliverResult(waiter.callback, null, httpResponse.copy());
+        }
+    }
+
+    private static class Flight {
+        final String key;
+        final List<Waiter> waiters = new ArrayList<>();
+        Runnable cancelCall;
+        volatile boolean cancelled;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    static class Waiter {
+        private final Flight flight;
+        private final HttpCallback<?> callback;
+        private final boolean leader;
+        private volatile boolean cancelled;
+
+        Waiter(Flight flight, HttpCallback<?> callback, boolean leader) {
+            this.flight = flight;
+            this.callback = callback;
+            this.leader = leader;
+        }
+
+        boolean isLeader() {
+            return leader;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Every waiter of the flight left, the call must be cancelled or not started.
+         */
+        boolean isFlightCancelled() {
+            return flight.cancelled;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package httper;
+
+/**
+ * Durations of the stages httper adds around the network, register with {@link Httper.Builder#setRequestListener}.
+ * Called on the thread of the stage, implementations should be cheap and thread safe.
+ */
+public interface RequestListener {
+
+    enum Stage {
+        /**
+         * {@link PostRequest#setJsonBody(Object)} turning the object into json.
+         */
+        SERIALIZE,
+        /**
+         * From the enqueue of the call until a dispatcher thread starts it.
+         */
+        QUEUE_WAIT,
+        /**
+         * Reading and decoding the response body.
+         */
+        PARSE,
+        /**
+         * From handing the result to the executor until the callback starts.
+         */
+        DELIVERY
+    }
+
+    void onStage(HttpRequest<?> request, Stage stage, long durationNanos);
+
+}
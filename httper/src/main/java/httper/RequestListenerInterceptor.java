@@ -0,0 +1,35 @@
+package httper;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * First interceptor of the chain, it runs when a dispatcher thread starts the call and reports the queue wait.
+ */
+class RequestListenerInterceptor implements Interceptor {
+
+    /**
+     * When the call was enqueued, a tag of its own request. Calls run synchronously are never enqueued.
+     */
+    static final class EnqueueTime {
+        volatile long nanos;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HttpRequest<?> httpRequest = request.tag(HttpRequest.class);
+        EnqueueTime enqueueTime = request.tag(EnqueueTime.class);
+        if (httpRequest != null && httpRequest.requestListener != null && enqueueTime != null) {
+            long enqueuedAt = enqueueTime.nanos;
+            if (enqueuedAt != 0) {
+                httpRequest.requestListener.onStage(httpRequest, RequestListener.Stage.QUEUE_WAIT,
+                        System.nanoTime() - enqueuedAt);
+            }
+        }
+        return chain.proceed(request);
+    }
+}
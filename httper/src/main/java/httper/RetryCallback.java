@@ -0,0 +1,91 @@
+package httper;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends the request again according to the {@link RetryPolicy} before the delegate sees the result.
+ * The backoff is waited on a timer thread, dispatcher threads return as soon as the attempt is over.
+ * The next call is created and tracked when the retry is scheduled, so cancelling the request or its tag
+ * during the backoff makes it fail as cancelled instead of being sent.
+ */
+class RetryCallback implements Callback {
+
+    private static ScheduledExecutorService scheduler;
+
+    private final HttpRequest<?> owner;
+    private final Request request;
+    private final RetryPolicy policy;
+    private final Callback delegate;
+    private final Call origin;
+    private volatile int attempt = 1;
+
+    RetryCallback(HttpRequest<?> owner, Request request, RetryPolicy policy, Call origin, Callback delegate) {
+        this.owner = owner;
+        this.request = request;
+        this.policy = policy;
+        this.origin = origin;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) throws IOException {
+        if (call != origin && origin.isCanceled()) {
+            // the first call is what callers keep a hold on, cancelling it stops the whole chain
+            response.close();
+            delegate.onFailure(call, new IOException("Canceled"));
+            return;
+        }
+        long delay = policy.delayAfterResponse(attempt, response);
+        if (delay < 0) {
+            delegate.onResponse(call, response);
+            return;
+        }
+        response.close();
+        retry(delay);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        long delay = policy.delayAfterFailure(attempt, call.isCanceled() || origin.isCanceled());
+        if (delay < 0) {
+            delegate.onFailure(call, e);
+            return;
+        }
+        retry(delay);
+    }
+
+    private void retry(long delayMillis) {
+        attempt++;
+        final Call next = owner.trackCall(request);
+        scheduler().schedule(() -> {
+            if (origin.isCanceled()) {
+                next.cancel();
+            }
+            owner.enqueueCall(next, this);
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Timer thread of the retries and hedges, it only enqueues calls.
+     */
+    static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "httper-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,218 @@
+package httper;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import httper.util.BodyUtil;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * When and how long to wait before a failed call is sent again, set with {@link Httper.Builder#setRetryPolicy}
+ * or {@link HttpRequest#retry(RetryPolicy)}.
+ * <p>
+ * The n-th retry waits {@code initialBackoff * multiplier^(n-1)} capped at {@code maxBackoff}, minus a random
+ * part of up to {@code jitter} of it so clients failing together do not come back together.
+ * A {@code Retry-After} header replaces the backoff, a response asking for more than {@code maxBackoff} is not retried.
+ * Only idempotent methods, or requests with an {@code Idempotency-Key} header, are retried unless
+ * {@link Builder#retryNonIdempotent} is set, one shot bodies never are.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy NONE = new Builder().maxAttempts(1).build();
+
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+    final int maxAttempts;
+    final long initialBackoffMillis;
+    final long maxBackoffMillis;
+    final double multiplier;
+    final double jitter;
+    final Set<Integer> retryStatusCodes;
+    final boolean retryOnIOException;
+    final boolean retryNonIdempotent;
+    final boolean honorRetryAfter;
+
+    RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.retryStatusCodes = new HashSet<>(builder.retryStatusCodes);
+        this.retryOnIOException = builder.retryOnIOException;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.honorRetryAfter = builder.honorRetryAfter;
+    }
+
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Whether the request may be sent more than once at all.
+     */
+    boolean canRetry(Request request) {
+        if (maxAttempts <= 1) {
+            return false;
+        }
+        if (BodyUtil.isOneShot(request.body())) {
+            return false;
+        }
+        return retryNonIdempotent
+                || IDEMPOTENT_METHODS.contains(request.method())
+                || request.header("Idempotency-Key") != null;
+    }
+
+    /**
+     * Delay before the next attempt after a failure, -1 when it should not be retried.
+     * A cancelled call fails with an IOException too, it is never retried.
+     */
+    long delayAfterFailure(int attempt, boolean canceled) {
+        if (!retryOnIOException || canceled || attempt >= maxAttempts) {
+            return -1;
+        }
+        return backoff(attempt);
+    }
+
+    /**
+     * Delay before the next attempt after a response, -1 when the response should be delivered.
+     */
+    long delayAfterResponse(int attempt, Response response) {
+        if (attempt >= maxAttempts || !retryStatusCodes.contains(response.code())) {
+            return -1;
+        }
+        if (honorRetryAfter) {
+            long retryAfter = retryAfterMillis(response);
+            if (retryAfter >= 0) {
+                return retryAfter <= maxBackoffMillis ? retryAfter : -1;
+            }
+        }
+        return backoff(attempt);
+    }
+
+    /**
+     * Backoff before the attempt following the given one, used as is by the per file retries of a batch.
+     */
+    long backoff(int attempt) {
+        double delay = initialBackoffMillis * Math.pow(multiplier, attempt - 1);
+        delay = Math.min(delay, maxBackoffMillis);
+        delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        return (long) delay;
+    }
+
+    /**
+     * Retry-After as delta seconds or as an http date, -1 when absent or unreadable.
+     */
+    private static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+        }
+        Date date = response.headers().getDate("Retry-After");
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    public static class Builder {
+        int maxAttempts = 3;
+        long initialBackoffMillis = 500;
+        long maxBackoffMillis = 30_000;
+        double multiplier = 2;
+        double jitter = 0.5;
+        Set<Integer> retryStatusCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+        boolean retryOnIOException = true;
+        boolean retryNonIdempotent;
+        boolean honorRetryAfter = true;
+
+        public Builder() {
+        }
+
+        Builder(RetryPolicy policy) {
+            this.maxAttempts = policy.maxAttempts;
+            this.initialBackoffMillis = policy.initialBackoffMillis;
+            this.maxBackoffMillis = policy.maxBackoffMillis;
+            this.multiplier = policy.multiplier;
+            this.jitter = policy.jitter;
+            this.retryStatusCodes = new HashSet<>(policy.retryStatusCodes);
+            this.retryOnIOException = policy.retryOnIOException;
+            this.retryNonIdempotent = policy.retryNonIdempotent;
+            this.honorRetryAfter = policy.honorRetryAfter;
+        }
+
+        /**
+         * Total number of calls including the first one, 1 disables retrying.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts < 1");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder backoff(long initial, long max, TimeUnit timeUnit) {
+            if (initial < 0 || max < initial) throw new IllegalArgumentException("invalid backoff");
+            this.initialBackoffMillis = timeUnit.toMillis(initial);
+            this.maxBackoffMillis = timeUnit.toMillis(max);
+            return this;
+        }
+
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) throw new IllegalArgumentException("multiplier < 1");
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Fraction of the backoff that is randomized, 0 for none and 1 for full jitter.
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter not in [0, 1]");
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Status codes that are retried, replaces the default 408, 429, 500, 502, 503 and 504.
+         */
+        public Builder retryOnStatus(int... codes) {
+            retryStatusCodes = new HashSet<>();
+            for (int code : codes) {
+                retryStatusCodes.add(code);
+            }
+            return this;
+        }
+
+        public Builder retryOnIOException(boolean retryOnIOException) {
+            this.retryOnIOException = retryOnIOException;
+            return this;
+        }
+
+        /**
+         * Also retry POST and PATCH, only when the server tolerates duplicates.
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        public Builder honorRetryAfter(boolean honorRetryAfter) {
+            this.honorRetryAfter = honorRetryAfter;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package httper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Request bodies streamed from their source straight to the connection, without a temp file or a byte array
+ * holding the whole content. Pass -1 as the length when it is not known, the body is then sent chunked.
+ * They can be used as parts of {@link UploadRequest#addPart(String, String, RequestBody)} and report progress
+ * through {@link UploadBody} like file parts.
+ */
+public class StreamBody {
+
+    /**
+     * Opens a new stream each time the body is written, so the body can be sent again on retry.
+     */
+    public interface StreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    public static RequestBody create(MediaType contentType, StreamSupplier supplier, long length) {
+        if (supplier == null) throw new IllegalArgumentException("supplier == null");
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (Source source = Okio.source(supplier.open())) {
+                    writeSource(sink, source, length);
+                }
+            }
+        };
+    }
+
+    /**
+     * The remaining bytes of the buffer, which may be a region mapped from a file.
+     * The buffer position is left untouched, so the body can be written again.
+     */
+    public static RequestBody create(MediaType contentType, ByteBuffer buffer) {
+        if (buffer == null) throw new IllegalArgumentException("buffer == null");
+        final ByteBuffer content = buffer.slice();
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return content.remaining();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                ByteBuffer duplicate = content.duplicate();
+                while (duplicate.hasRemaining()) {
+                    sink.write(duplicate);
+                }
+            }
+        };
+    }
+
+    /**
+     * A stream that can only be read once, the body is one shot and is not written by the log interceptor.
+     */
+    public static RequestBody create(MediaType contentType, InputStream inputStream, long length) {
+        if (inputStream == null) throw new IllegalArgumentException("inputStream == null");
+        return create(contentType, Okio.source(inputStream), length);
+    }
+
+    /**
+     * A source that can only be read once, the body is one shot and is not written by the log interceptor.
+     */
+    public static RequestBody create(MediaType contentType, Source source, long length) {
+        if (source == null) throw new IllegalArgumentException("source == null");
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (Source s = source) {
+                    writeSource(sink, s, length);
+                }
+            }
+        };
+    }
+
+    private static void writeSource(BufferedSink sink, Source source, long length) throws IOException {
+        if (length >= 0) {
+            sink.write(source, length);
+        } else {
+            sink.writeAll(source);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package httper;
 
 import java.io.IOException;
 
+import httper.util.BodyUtil;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okio.Buffer;
@@ -14,10 +15,21 @@ public class UploadBody extends RequestBody {
 
     private final RequestBody requestBody;
     private final UploadProgressListener uploadListener;
+    private final ProgressDispatcher progressDispatcher;
 
     public UploadBody(RequestBody requestBody, UploadProgressListener uploadListener) {
         this.requestBody = requestBody;
         this.uploadListener = uploadListener;
+        this.progressDispatcher = null;
+    }
+
+    /**
+     * Progress goes through the dispatcher, which also gets the final count once the body is written.
+     */
+    UploadBody(RequestBody requestBody, ProgressDispatcher progressDispatcher) {
+        this.requestBody = requestBody;
+        this.uploadListener = progressDispatcher != null ? progressDispatcher::onProgress : null;
+        this.progressDispatcher = progressDispatcher;
     }
 
     @Override
@@ -30,30 +42,45 @@ public class UploadBody extends RequestBody {
         return requestBody.contentLength();
     }
 
+    /**
+     * One shot if the body or any of its multipart parts is, such a body must be written only once.
+     */
+    @Override
+    public boolean isOneShot() {
+        return BodyUtil.isOneShot(requestBody);
+    }
+
     @Override
     public void writeTo(BufferedSink sink) throws IOException {
-        BufferedSink bufferedSink = Okio.buffer(sink(sink));
+        CountingSink countingSink = new CountingSink(sink);
+        BufferedSink bufferedSink = Okio.buffer(countingSink);
         requestBody.writeTo(bufferedSink);
         bufferedSink.flush();
+        if (progressDispatcher != null) {
+            // throttled events of a body without a length would otherwise never reach the end
+            progressDispatcher.onComplete(countingSink.bytesWritten, contentLength());
+        }
     }
 
-    private Sink sink(Sink sink) {
-        return new ForwardingSink(sink) {
-            private long contentLength = 0L;
-            private long bytesWritten = 0L;
-
-            @Override
-            public void write(Buffer source, long byteCount) throws IOException {
-                super.write(source, byteCount);
-                if (contentLength == 0) {
-                    contentLength = contentLength();
-                }
-                bytesWritten += byteCount;
-                if (uploadListener != null) {
-                    uploadListener.onProgress(bytesWritten, contentLength);
-                }
+    private class CountingSink extends ForwardingSink {
+        private long contentLength = 0L;
+        private long bytesWritten = 0L;
+
+        CountingSink(Sink delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            if (contentLength == 0) {
+                contentLength = contentLength();
+            }
+            bytesWritten += byteCount;
+            if (uploadListener != null) {
+                uploadListener.onProgress(bytesWritten, contentLength);
             }
-        };
+        }
     }
 
 }
\ No newline at end of file
@@ -9,13 +9,13 @@ import java.util.Map;
 
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
-import okhttp3.Request;
 import okhttp3.RequestBody;
 
 public class UploadRequest extends HttpRequest<UploadRequest> {
 
     private final Map<String, String> formData = new HashMap<>();
     private final Map<String, RequestBody> bodyMap = new HashMap<>();
+    private final List<Part> parts = new ArrayList<>();
     private final Map<String, List<FileBody>> fileBodyMap = new HashMap<>();
 
     private UploadProgressListener listener;
@@ -27,7 +27,7 @@ public class UploadRequest extends HttpRequest<UploadRequest> {
         }
     }
 
-    private static String getMimeType(String fileName) {
+    static String getMimeType(String fileName) {
         String contentTypeFor = URLConnection.getFileNameMap().getContentTypeFor(fileName);
         if (contentTypeFor == null) {
             contentTypeFor = "application/octet-stream";
@@ -64,6 +64,22 @@ public class UploadRequest extends HttpRequest<UploadRequest> {
         return this;
     }
 
+    /**
+     * Add a part with a file name, like a file but from any body, see {@link StreamBody}.
+     */
+    public UploadRequest addPart(String name, String fileName, RequestBody body) {
+        this.parts.add(new Part(name, fileName, body));
+        return this;
+    }
+
+    /**
+     * Add a part streamed from the supplier, length -1 if unknown.
+     */
+    public UploadRequest addStream(String name, String fileName, StreamBody.StreamSupplier supplier, long length) {
+        MediaType mediaType = MediaType.parse(getMimeType(fileName));
+        return addPart(name, fileName, StreamBody.create(mediaType, supplier, length));
+    }
+
     public UploadRequest setUploadProgressListener(UploadProgressListener listener) {
         this.listener = listener;
         return this;
@@ -76,24 +92,19 @@ public class UploadRequest extends HttpRequest<UploadRequest> {
     }
 
     public <E> void request(HttpCallback<E> callback) {
-        String httpUrl = generateUrl();
+        enqueue(buildRequest(), generateCallback(callback));
+    }
 
-        Request.Builder builder = generateRequest().url(httpUrl);
+    @Override
+    protected RequestBody generateRequestBody() {
         MultipartBody.Builder bodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
         addFormData(bodyBuilder);
         addBody(bodyBuilder);
         addFileBody(bodyBuilder);
-        RequestBody body = bodyBuilder.build();
-        if (listener != null) {
-            UploadProgressListener l = executor != null
-                    ? (uploadBytes, totalBytes) -> executor.execute(() -> listener.onProgress(uploadBytes, totalBytes))
-                    : (uploadBytes, totalBytes) -> listener.onProgress(uploadBytes, totalBytes);
-            body = new UploadBody(body, l);
-        }
-        Request request = builder.post(body).build();
-
-        call = generateOkClient().newCall(request);
-        call.enqueue(generateCallback(callback));
+        addParts(bodyBuilder);
+        // always wrapped, a bare MultipartBody never reports a one shot part to OkHttp or the retry policy
+        return new UploadBody(bodyBuilder.build(),
+                listener != null ? newProgressDispatcher(listener::onProgress) : null);
     }
 
     private void addBody(MultipartBody.Builder body) {
@@ -102,6 +113,12 @@ public class UploadRequest extends HttpRequest<UploadRequest> {
         }
     }
 
+    private void addParts(MultipartBody.Builder body) {
+        for (Part part : parts) {
+            body.addFormDataPart(part.name, part.fileName, part.body);
+        }
+    }
+
     private void addFileBody(MultipartBody.Builder body) {
         for (Map.Entry<String, List<FileBody>> entry : fileBodyMap.entrySet()) {
             List<FileBody> fileBodies = entry.getValue();
@@ -125,4 +142,16 @@ public class UploadRequest extends HttpRequest<UploadRequest> {
             this.contentType = contentType;
         }
     }
+
+    static class Part {
+        public String name;
+        public String fileName;
+        public RequestBody body;
+
+        public Part(String name, String fileName, RequestBody body) {
+            this.name = name;
+            this.fileName = fileName;
+            this.body = body;
+        }
+    }
 }
@@ -0,0 +1,58 @@
+package httper.interceptor;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log lines on a daemon thread of its own. The queue is bounded, lines offered while it is full
+ * are dropped and counted, so logging never blocks the caller.
+ */
+public class AsyncLog {
+
+    private static volatile AsyncLog defaultLog;
+
+    private final BlockingQueue<String[]> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AsyncLog(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this::loop, "httper-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static AsyncLog getDefault() {
+        if (defaultLog == null) {
+            synchronized (AsyncLog.class) {
+                if (defaultLog == null) {
+                    defaultLog = new AsyncLog(1024);
+                }
+            }
+        }
+        return defaultLog;
+    }
+
+    public void d(String tag, String msg) {
+        if (!queue.offer(new String[]{tag, msg})) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                String[] line = queue.take();
+                Log.d(line[0], line[1]);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
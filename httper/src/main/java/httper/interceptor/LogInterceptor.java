@@ -1,7 +1,5 @@
 package httper.interceptor;
 
-import android.util.Log;
-
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -11,6 +9,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
+import httper.util.BodyUtil;
 import okhttp3.Connection;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
@@ -21,14 +20,35 @@ import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.internal.http.HttpHeaders;
 import okio.Buffer;
-import okio.BufferedSource;
+import okio.ForwardingSource;
 import okio.GzipSource;
+import okio.Okio;
+import okio.Source;
 
+/**
+ * Logs requests and responses through an {@link AsyncLog}. Bodies are previewed up to a max size: a request body
+ * is only written when it is small text, a response body is teed while the caller reads it and logged
+ * when it is exhausted or closed, it is never buffered ahead of the caller.
+ */
 public class LogInterceptor implements Interceptor {
     private static final String TAG = "LogInterceptor";
 
+    public static final long DEFAULT_MAX_PREVIEW_BYTES = 4096;
+
     private volatile Set<String> headersToRedact = Collections.emptySet();
 
+    private final long maxPreviewBytes;
+    private final AsyncLog log;
+
+    public LogInterceptor() {
+        this(DEFAULT_MAX_PREVIEW_BYTES, AsyncLog.getDefault());
+    }
+
+    public LogInterceptor(long maxPreviewBytes, AsyncLog log) {
+        this.maxPreviewBytes = maxPreviewBytes;
+        this.log = log;
+    }
+
     private static boolean bodyHasUnknownEncoding(Headers headers) {
         String contentEncoding = headers.get("Content-Encoding");
         return contentEncoding != null
@@ -60,6 +80,22 @@ public class LogInterceptor implements Interceptor {
         }
     }
 
+    /**
+     * Decide from the content type alone, before any byte is read. Unknown types are sampled.
+     */
+    private static boolean isTextType(MediaType contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.type();
+        String subtype = contentType.subtype().toLowerCase();
+        return "text".equalsIgnoreCase(type)
+                || subtype.contains("json")
+                || subtype.contains("xml")
+                || subtype.contains("javascript")
+                || subtype.contains("x-www-form-urlencoded");
+    }
+
     public void redactHeader(String name) {
         Set<String> newHeadersToRedact = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
         newHeadersToRedact.addAll(headersToRedact);
@@ -69,7 +105,11 @@ public class LogInterceptor implements Interceptor {
 
     private void logHeader(Headers headers, int i) {
         String value = headersToRedact.contains(headers.name(i)) ? "██" : headers.value(i);
-        Log.d(TAG, headers.name(i) + ": " + value);
+        log(headers.name(i) + ": " + value);
+    }
+
+    private void log(String msg) {
+        log.d(TAG, msg);
     }
 
     @Override
@@ -83,25 +123,34 @@ public class LogInterceptor implements Interceptor {
         String requestStartMessage = "--> " + request.method()
                 + ' ' + request.url()
                 + (connection != null ? " " + connection.protocol() : "");
-        Log.d(TAG, requestStartMessage);
+        log(requestStartMessage);
 
         if (hasRequestBody) {
             // Request body headers are only present when installed as a network interceptor. Force
             // them to be included (when available) so there values are known.
             if (requestBody.contentType() != null) {
-                Log.d(TAG, "Content-Type: " + requestBody.contentType());
+                log("Content-Type: " + requestBody.contentType());
             }
             if (requestBody.contentLength() != -1) {
-                Log.d(TAG, "Content-Length: " + requestBody.contentLength());
+                log("Content-Length: " + requestBody.contentLength());
             }
         }
 
         if (!hasRequestBody) {
-            Log.d(TAG, "--> END " + request.method());
-        } else if (bodyHasUnknownEncoding(request.headers())) {
-            Log.d(TAG, "--> END " + request.method() + " (encoded body omitted)");
+            log("--> END " + request.method());
+        } else if (bodyHasUnknownEncoding(request.headers())
+                || "gzip".equalsIgnoreCase(request.header("Content-Encoding"))) {
+            log("--> END " + request.method() + " (encoded body omitted)");
         } else if (requestBody.isDuplex()) {
-            Log.d(TAG, "--> END " + request.method() + " (duplex request body omitted)");
+            log("--> END " + request.method() + " (duplex request body omitted)");
+        } else if (BodyUtil.isOneShot(requestBody)) {
+            log("--> END " + request.method() + " (one-shot body omitted)");
+        } else if (!isTextType(requestBody.contentType())
+                || requestBody.contentLength() == -1
+                || requestBody.contentLength() > maxPreviewBytes) {
+            // only small text bodies are written a second time for the log
+            log("--> END " + request.method() + " ("
+                    + requestBody.contentLength() + "-byte body omitted)");
         } else {
             Buffer buffer = new Buffer();
             requestBody.writeTo(buffer);
@@ -112,13 +161,13 @@ public class LogInterceptor implements Interceptor {
                 charset = contentType.charset(charset);
             }
 
-            Log.d(TAG, "");
+            log("");
             if (isPlaintext(buffer)) {
-                Log.d(TAG, buffer.readString(charset));
-                Log.d(TAG, "--> END " + request.method()
+                log(buffer.readString(charset));
+                log("--> END " + request.method()
                         + " (" + requestBody.contentLength() + "-byte body)");
             } else {
-                Log.d(TAG, "--> END " + request.method() + " (binary "
+                log("--> END " + request.method() + " (binary "
                         + requestBody.contentLength() + "-byte body omitted)");
             }
         }
@@ -128,7 +177,7 @@ public class LogInterceptor implements Interceptor {
         try {
             response = chain.proceed(request);
         } catch (Exception e) {
-            Log.d(TAG, "<-- HTTP FAILED: " + e);
+            log("<-- HTTP FAILED: " + e);
             throw e;
         }
         long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
@@ -136,7 +185,7 @@ public class LogInterceptor implements Interceptor {
         ResponseBody responseBody = response.body();
         long contentLength = responseBody.contentLength();
         String bodySize = contentLength != -1 ? contentLength + "-byte" : "unknown-length";
-        Log.d(TAG, "<-- "
+        log("<-- "
                 + response.code()
                 + (response.message().isEmpty() ? "" : ' ' + response.message())
                 + ' ' + response.request().url()
@@ -145,49 +194,98 @@ public class LogInterceptor implements Interceptor {
         Headers headers = response.headers();
 
         if (!HttpHeaders.hasBody(response)) {
-            Log.d(TAG, "<-- END HTTP");
-        } else if (bodyHasUnknownEncoding(response.headers())) {
-            Log.d(TAG, "<-- END HTTP (encoded body omitted)");
+            log("<-- END HTTP");
+        } else if (bodyHasUnknownEncoding(headers)) {
+            log("<-- END HTTP (encoded body omitted)");
+        } else if (!isTextType(responseBody.contentType())) {
+            log("<-- END HTTP (binary " + bodySize + " body omitted)");
         } else {
-            BufferedSource source = responseBody.source();
-            source.request(Long.MAX_VALUE); // Buffer the entire body.
-            Buffer buffer = source.getBuffer();
-
-            Long gzippedLength = null;
-            if ("gzip".equalsIgnoreCase(headers.get("Content-Encoding"))) {
-                gzippedLength = buffer.size();
-                try (GzipSource gzippedResponseBody = new GzipSource(buffer.clone())) {
-                    buffer = new Buffer();
-                    buffer.writeAll(gzippedResponseBody);
+            boolean gzipped = "gzip".equalsIgnoreCase(headers.get("Content-Encoding"));
+            PreviewSource previewSource = new PreviewSource(responseBody.source(), responseBody.contentType(), gzipped);
+            ResponseBody previewBody = ResponseBody.create(responseBody.contentType(), contentLength,
+                    Okio.buffer(previewSource));
+            return response.newBuilder().body(previewBody).build();
+        }
+
+        return response;
+    }
+
+    /**
+     * Copies the first bytes read by the caller into the preview, logged once when the body ends or is closed.
+     */
+    private class PreviewSource extends ForwardingSource {
+        private final Buffer preview = new Buffer();
+        private final MediaType contentType;
+        private final boolean gzipped;
+        private long totalBytes;
+        private boolean exhausted;
+        private boolean logged;
+
+        PreviewSource(Source delegate, MediaType contentType, boolean gzipped) {
+            super(delegate);
+            this.contentType = contentType;
+            this.gzipped = gzipped;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read == -1) {
+                exhausted = true;
+                logPreview();
+                return read;
+            }
+            totalBytes += read;
+            long room = maxPreviewBytes - preview.size();
+            if (room > 0) {
+                sink.copyTo(preview, sink.size() - read, Math.min(read, room));
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            logPreview();
+            super.close();
+        }
+
+        private void logPreview() {
+            if (logged) {
+                return;
+            }
+            logged = true;
+
+            Buffer buffer = preview;
+            if (gzipped) {
+                buffer = new Buffer();
+                try (GzipSource gzipSource = new GzipSource(preview.clone())) {
+                    long read;
+                    do {
+                        read = gzipSource.read(buffer, 8192);
+                    } while (read != -1);
+                } catch (IOException e) {
+                    // the preview ends in the middle of the gzip stream, keep what was inflated
                 }
             }
 
             Charset charset = StandardCharsets.UTF_8;
-            MediaType contentType = responseBody.contentType();
             if (contentType != null) {
                 charset = contentType.charset(charset);
             }
 
+            String size = (exhausted ? "" : "at least ") + totalBytes + "-byte"
+                    + (gzipped ? "-gzipped" : "");
             if (!isPlaintext(buffer)) {
-                Log.d(TAG, "");
-                Log.d(TAG, "<-- END HTTP (binary " + buffer.size() + "-byte body omitted)");
-                return response;
+                log("");
+                log("<-- END HTTP (binary " + size + " body omitted)");
+                return;
             }
-
-            if (contentLength != 0) {
-                Log.d(TAG, "");
-                Log.d(TAG, buffer.clone().readString(charset));
-            }
-
-            if (gzippedLength != null) {
-                Log.d(TAG, "<-- END HTTP (" + buffer.size() + "-byte, "
-                        + gzippedLength + "-gzipped-byte body)");
-            } else {
-                Log.d(TAG, "<-- END HTTP (" + buffer.size() + "-byte body)");
+            if (buffer.size() > 0) {
+                log("");
+                log(buffer.readString(charset) + (preview.size() < totalBytes ? "…" : ""));
             }
+            log("<-- END HTTP (" + size + " body" + (exhausted ? "" : ", closed early") + ")");
         }
-
-        return response;
     }
 
 }
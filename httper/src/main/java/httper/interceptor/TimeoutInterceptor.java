@@ -0,0 +1,37 @@
+package httper.interceptor;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Applies per request timeouts carried by a {@link Timeout} tag to the chain,
+ * so a request with its own timeout shares the client instead of building a new one.
+ */
+public class TimeoutInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Timeout timeout = request.tag(Timeout.class);
+        if (timeout == null || timeout.millis <= 0) {
+            return chain.proceed(request);
+        }
+        int millis = (int) Math.min(timeout.millis, Integer.MAX_VALUE);
+        return chain.withConnectTimeout(millis, TimeUnit.MILLISECONDS)
+                .withReadTimeout(millis, TimeUnit.MILLISECONDS)
+                .withWriteTimeout(millis, TimeUnit.MILLISECONDS)
+                .proceed(request);
+    }
+
+    public static class Timeout {
+        public final long millis;
+
+        public Timeout(long millis) {
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package httper.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations in microseconds. Buckets are log scaled with 4 sub buckets per power of two,
+ * so percentiles are within 25% of the recorded value whatever its magnitude.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 248;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray stats = new AtomicLongArray(2); // sum, max
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucket(micros));
+        stats.addAndGet(0, micros);
+        long max;
+        do {
+            max = stats.get(1);
+        } while (micros > max && !stats.compareAndSet(1, max, micros));
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        return new Snapshot(count, stats.get(0), stats.get(1),
+                percentile(snapshot, count, 0.50),
+                percentile(snapshot, count, 0.90),
+                percentile(snapshot, count, 0.99));
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        stats.set(0, 0);
+        stats.set(1, 0);
+    }
+
+    static int bucket(long value) {
+        if (value < 4) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exp - 2)) & 3);
+        return exp * 4 + sub - 4;
+    }
+
+    /**
+     * Middle of the bucket range.
+     */
+    static long bucketValue(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exp = bucket / 4 + 1;
+        int sub = bucket % 4;
+        long lower = (4L + sub) << (exp - 2);
+        long width = 1L << (exp - 2);
+        return lower + width / 2;
+    }
+
+    private static long percentile(long[] counts, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return bucketValue(i);
+            }
+        }
+        return bucketValue(counts.length - 1);
+    }
+
+    public static class Snapshot {
+        public final long count;
+        public final long sumMicros;
+        public final long maxMicros;
+        public final long p50Micros;
+        public final long p90Micros;
+        public final long p99Micros;
+
+        Snapshot(long count, long sumMicros, long maxMicros, long p50Micros, long p90Micros, long p99Micros) {
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+        }
+
+        public long meanMicros() {
+            return count > 0 ? sumMicros / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "count=" + count +
+                    ", mean=" + meanMicros() +
+                    "us, p50=" + p50Micros +
+                    "us, p90=" + p90Micros +
+                    "us, p99=" + p99Micros +
+                    "us, max=" + maxMicros +
+                    "us}";
+        }
+    }
+}
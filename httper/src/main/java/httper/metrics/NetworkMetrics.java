@@ -0,0 +1,207 @@
+package httper.metrics;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Durations of the network phases of every call, per host, recorded from OkHttp events.
+ * Register with {@link httper.Httper.Builder#setNetworkMetrics(NetworkMetrics)}, the event listener factory
+ * the client already had still gets its events.
+ */
+public class NetworkMetrics implements EventListener.Factory {
+
+    public enum Phase {
+        DNS, CONNECT, TLS, REQUEST_WRITE, TIME_TO_FIRST_BYTE, BODY_READ, CALL
+    }
+
+    private final ConcurrentHashMap<String, Map<Phase, Histogram>> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener(call.request().url().host());
+    }
+
+    /**
+     * Factory recording the metrics that keeps the events flowing to the factory the client already had.
+     * A client already wrapped for this instance is returned as is, one wrapped for other metrics is rewrapped.
+     */
+    public EventListener.Factory wrap(EventListener.Factory delegate) {
+        if (delegate == this) {
+            return this;
+        }
+        if (delegate instanceof Wrapper) {
+            Wrapper wrapper = (Wrapper) delegate;
+            if (wrapper.metrics() == this) {
+                return delegate;
+            }
+            delegate = wrapper.delegate;
+        }
+        return delegate != null ? new Wrapper(delegate) : this;
+    }
+
+    /**
+     * Snapshot of the histograms, by host then by phase. Phases a host never went through are missing.
+     */
+    public Map<String, Map<Phase, Histogram.Snapshot>> snapshot() {
+        Map<String, Map<Phase, Histogram.Snapshot>> snapshot = new HashMap<>();
+        for (Map.Entry<String, Map<Phase, Histogram>> host : hosts.entrySet()) {
+            Map<Phase, Histogram.Snapshot> phases = new EnumMap<>(Phase.class);
+            for (Map.Entry<Phase, Histogram> phase : host.getValue().entrySet()) {
+                Histogram.Snapshot phaseSnapshot = phase.getValue().snapshot();
+                if (phaseSnapshot.count > 0) {
+                    phases.put(phase.getKey(), phaseSnapshot);
+                }
+            }
+            snapshot.put(host.getKey(), phases);
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        hosts.clear();
+    }
+
+    private Histogram histogram(String host, Phase phase) {
+        Map<Phase, Histogram> phases = hosts.get(host);
+        if (phases == null) {
+            Map<Phase, Histogram> newPhases = new EnumMap<>(Phase.class);
+            for (Phase p : Phase.values()) {
+                newPhases.put(p, new Histogram());
+            }
+            phases = hosts.putIfAbsent(host, newPhases);
+            if (phases == null) {
+                phases = newPhases;
+            }
+        }
+        return phases.get(phase);
+    }
+
+    private class Wrapper implements EventListener.Factory {
+        final EventListener.Factory delegate;
+
+        Wrapper(EventListener.Factory delegate) {
+            this.delegate = delegate;
+        }
+
+        NetworkMetrics metrics() {
+            return NetworkMetrics.this;
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            EventListener listener = delegate.create(call);
+            EventListener metrics = NetworkMetrics.this.create(call);
+            return listener == EventListener.NONE ? metrics : new TeeEventListener(listener, metrics);
+        }
+    }
+
+    /**
+     * Events of one call arrive one after the other, plain fields are enough.
+     */
+    private class CallListener extends EventListener {
+        private final String host;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private long requestEnd;
+        private long responseBodyStart;
+
+        CallListener(String host) {
+            this.host = host;
+        }
+
+        private void record(Phase phase, long startNanos) {
+            if (startNanos != 0) {
+                histogram(host, phase).record((System.nanoTime() - startNanos) / 1000);
+            }
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            record(Phase.DNS, dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            record(Phase.TLS, secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            record(Phase.CONNECT, connectStart);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = System.nanoTime();
+            if (request.body() == null) {
+                record(Phase.REQUEST_WRITE, requestStart);
+            }
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = System.nanoTime();
+            record(Phase.REQUEST_WRITE, requestStart);
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            record(Phase.TIME_TO_FIRST_BYTE, requestEnd);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            responseBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            record(Phase.BODY_READ, responseBodyStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(Phase.CALL, callStart);
+        }
+    }
+}
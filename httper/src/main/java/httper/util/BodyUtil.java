@@ -0,0 +1,29 @@
+package httper.util;
+
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+
+public class BodyUtil {
+
+    /**
+     * Whether the body can be written only once, looking into multipart parts:
+     * in OkHttp 3 a MultipartBody never reports itself as one shot, whatever its parts.
+     */
+    public static boolean isOneShot(RequestBody body) {
+        if (body == null) {
+            return false;
+        }
+        if (body.isOneShot()) {
+            return true;
+        }
+        if (body instanceof MultipartBody) {
+            for (MultipartBody.Part part : ((MultipartBody) body).parts()) {
+                if (isOneShot(part.body())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
@@ -2,9 +2,18 @@ package httper.util;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TypeUtil {
 
+    /** Marks classes that have no resolvable type parameter, ConcurrentHashMap does not take null values. */
+    private static final Type NO_TYPE = Void.TYPE;
+
+    private static final ConcurrentHashMap<Class<?>, Type> interfaceTypeCache = new ConcurrentHashMap<>();
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
     public static Type getSuperclassTypeParameter(Object object) {
         if (object == null) {
             return null;
@@ -30,4 +39,39 @@ public class TypeUtil {
         return null;
     }
 
+    /**
+     * Same as {@link #getGenericInterfaceTypeParameter(Object)}, but the result is cached per class,
+     * so callbacks created repeatedly from the same anonymous class are resolved only once.
+     */
+    public static Type getCachedGenericInterfaceTypeParameter(Object object) {
+        if (object == null) {
+            return null;
+        }
+        Class<?> clazz = object.getClass();
+        Type type = interfaceTypeCache.get(clazz);
+        if (type != null) {
+            cacheHits.incrementAndGet();
+        } else {
+            cacheMisses.incrementAndGet();
+            type = getGenericInterfaceTypeParameter(object);
+            if (type == null) {
+                type = NO_TYPE;
+            }
+            interfaceTypeCache.putIfAbsent(clazz, type);
+        }
+        return type == NO_TYPE ? null : type;
+    }
+
+    public static long getTypeCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public static long getTypeCacheMissCount() {
+        return cacheMisses.get();
+    }
+
+    public static void clearTypeCache() {
+        interfaceTypeCache.clear();
+    }
+
 }
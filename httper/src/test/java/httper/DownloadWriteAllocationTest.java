@@ -0,0 +1,52 @@
+package httper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocations of the download write path against the former copy, which allocated its byte[4096]
+ * and the 8 KB buffer of its BufferedOutputStream for every download.
+ */
+public class DownloadWriteAllocationTest {
+
+    private static final int SIZE = 8 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DownloadWritePaths paths;
+
+    @Before
+    public void setUp() throws IOException {
+        paths = new DownloadWritePaths(SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        paths.shutdown();
+    }
+
+    @Test
+    public void segmentMoveAllocatesLessThanByteArrayCopy() throws IOException {
+        File file = folder.newFile("download.bin");
+        // warm up both paths before measuring
+        paths.byteArrayCopy(file);
+        paths.segmentMove(file);
+
+        long before = DownloadWritePaths.measure(() -> paths.byteArrayCopy(file))[1];
+        assertEquals(SIZE, file.length());
+        long after = DownloadWritePaths.measure(() -> paths.segmentMove(file))[1];
+        assertEquals(SIZE, file.length());
+        // the segments are moved to the file, not even the copy buffer of the old path is allocated
+        assertTrue("allocated " + after + " bytes, the byte array copy " + before, after <= before - 4096);
+    }
+}
@@ -0,0 +1,81 @@
+package httper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput of the download write path, against the former byte[4096] and BufferedOutputStream copy.
+ * Not part of the default unit tests, run it with {@code -Pbenchmark}.
+ */
+public class DownloadWriteBenchmarkTest {
+
+    private static final int SIZE = 32 * 1024 * 1024;
+    private static final int RUNS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DownloadWritePaths paths;
+
+    @Before
+    public void setUp() throws IOException {
+        paths = new DownloadWritePaths(SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        paths.shutdown();
+    }
+
+    @Test
+    public void writePath() throws IOException {
+        File file = folder.newFile("download.bin");
+        // warm up both paths before measuring
+        paths.byteArrayCopy(file);
+        paths.segmentMove(file);
+
+        Result before = new Result();
+        Result after = new Result();
+        for (int i = 0; i < RUNS; i++) {
+            before.add(DownloadWritePaths.measure(() -> paths.byteArrayCopy(file)));
+            assertEquals(SIZE, file.length());
+            after.add(DownloadWritePaths.measure(() -> paths.segmentMove(file)));
+            assertEquals(SIZE, file.length());
+        }
+        System.out.println("byte[4096] copy:   " + before);
+        System.out.println("okio segment move: " + after);
+    }
+
+    private static class Result {
+        long nanos;
+        long allocated;
+        int runs;
+
+        void add(long[] measure) {
+            nanos += measure[0];
+            allocated += measure[1];
+            runs++;
+        }
+
+        double megabytesPerSecond() {
+            return (double) SIZE * runs / (1024 * 1024) / (nanos / 1e9);
+        }
+
+        long allocatedPerMegabyte() {
+            return allocated / runs / (SIZE / (1024 * 1024));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f MB/s, %d bytes allocated per MB", megabytesPerSecond(), allocatedPerMegabyte());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package httper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The download write path and the former byte[4096] and BufferedOutputStream copy, reading the same body
+ * from a local server on the calling thread.
+ */
+class DownloadWritePaths {
+
+    final int size;
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient();
+    private final Httper httper;
+    private final MockResponse response;
+
+    DownloadWritePaths(int size) throws IOException {
+        this.size = size;
+        server.start();
+        httper = new Httper.Builder()
+                .setHttpClient(client)
+                .setExecutor(Runnable::run)
+                .build();
+        Buffer body = new Buffer();
+        byte[] block = new byte[64 * 1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        while (body.size() < size) {
+            body.write(block);
+        }
+        response = new MockResponse().setBody(body);
+    }
+
+    void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * The write path before the change.
+     */
+    void byteArrayCopy(File file) throws IOException {
+        server.enqueue(response);
+        Request request = new Request.Builder().url(server.url("/file")).build();
+        try (Response resp = client.newCall(request).execute();
+             InputStream in = resp.body().byteStream();
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            byte[] bytes = new byte[4096];
+            int len;
+            while ((len = in.read(bytes)) != -1) {
+                out.write(bytes, 0, len);
+            }
+        }
+    }
+
+    void segmentMove(File file) throws IOException {
+        server.enqueue(response);
+        HttpResponse<File> resp = httper.download(server.url("/file").toString())
+                .setFilePath(file.getPath())
+                .execute();
+        assertTrue(String.valueOf(resp.error), resp.isSuccess());
+    }
+
+    /**
+     * Nanoseconds and bytes allocated by the calling thread.
+     */
+    static long[] measure(Run run) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run.run();
+        return new long[]{System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - allocated};
+    }
+
+    interface Run {
+        void run() throws IOException;
+    }
+}
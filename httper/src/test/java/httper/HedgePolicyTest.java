@@ -0,0 +1,39 @@
+package httper;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgePolicyTest {
+
+    @Test
+    public void percentileDelayAfterMinSamples() {
+        HedgePolicy policy = new HedgePolicy.Builder()
+                .percentileDelay(0.95, 10, 2000, TimeUnit.MILLISECONDS)
+                .build();
+        for (int i = 1; i < 20; i++) {
+            policy.onResponse(100, false);
+        }
+        assertEquals(2000, policy.delayMillis());
+        policy.onResponse(100, false);
+        assertEquals(100, policy.delayMillis());
+    }
+
+    @Test
+    public void budgetLimitsHedges() {
+        HedgePolicy policy = new HedgePolicy.Builder().budget(10, 1).build();
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+        assertTrue(hedges >= 9 && hedges <= 10);
+        assertFalse(policy.tryAcquireHedge());
+    }
+}
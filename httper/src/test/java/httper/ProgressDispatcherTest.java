@@ -0,0 +1,33 @@
+package httper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProgressDispatcherTest {
+
+    @Test
+    public void completeFlushesUnknownLength() {
+        List<Long> events = new ArrayList<>();
+        ProgressDispatcher dispatcher = new ProgressDispatcher(null, (bytes, total) -> events.add(bytes), 60_000, 1f);
+        dispatcher.onProgress(0, -1);
+        dispatcher.onProgress(100, -1);
+        dispatcher.onProgress(200, -1);
+        dispatcher.onComplete(200, -1);
+        assertEquals(Arrays.asList(0L, 200L), events);
+    }
+
+    @Test
+    public void completeDoesNotRepeatLastEvent() {
+        List<Long> events = new ArrayList<>();
+        ProgressDispatcher dispatcher = new ProgressDispatcher(null, (bytes, total) -> events.add(bytes), 60_000, 1f);
+        dispatcher.onProgress(0, 200);
+        dispatcher.onProgress(200, 200);
+        dispatcher.onComplete(200, 200);
+        assertEquals(Arrays.asList(0L, 200L), events);
+    }
+}
@@ -0,0 +1,103 @@
+package httper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private MockWebServer server;
+    private Httper httper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        httper = new Httper.Builder()
+                .setExecutor(Runnable::run)
+                .setRetryPolicy(new RetryPolicy.Builder()
+                        .maxAttempts(3)
+                        .backoff(10, 10, TimeUnit.MILLISECONDS)
+                        .build())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void executeRetriesServerErrors() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        HttpResponse<String> resp = httper.get(server.url("/").toString()).execute(String.class);
+        assertTrue(String.valueOf(resp.error), resp.isSuccess());
+        assertEquals("ok", resp.data);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void requestRetriesServerErrors() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<HttpResponse<String>> result = new AtomicReference<>();
+        httper.get(server.url("/").toString()).request(new HttpCallback<String>() {
+            @Override
+            public void onResult(HttpResponse<String> httpResponse) {
+                result.set(httpResponse);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("ok", result.get().data);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void postIsNotRetried() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        HttpResponse<String> resp = httper.post(server.url("/").toString())
+                .setJsonBody("{}")
+                .execute(String.class);
+        assertFalse(resp.isSuccess());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelTagDuringBackoffStopsExecute() throws InterruptedException {
+        Object tag = new Object();
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "10"));
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            httper.cancel(tag);
+        });
+        canceller.start();
+        long start = System.nanoTime();
+        HttpResponse<String> resp = httper.get(server.url("/").toString())
+                .retry(new RetryPolicy.Builder().backoff(10, 20, TimeUnit.SECONDS).build())
+                .tag(tag)
+                .execute(String.class);
+        canceller.join();
+        assertFalse(resp.isSuccess());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(1, server.getRequestCount());
+    }
+}